@@ -0,0 +1,153 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+// What a calibration run learned about one device and audio source, persisted so later
+// sessions can start measuring straight away.
+//
+// One small binary file per device model and audio source:
+//   u32 magic 'ECAL' | u8 version | UTF model | i32 audio source | bool UNPROCESSED fell back
+//   | i32 sample rate | i64 created (ms since epoch) | i32 latency (samples)
+//   | f32 noise floor RMS | f32 direct-path tail (ms) | i32 taps | f32 x taps response
+// Files are written to a temporary name and renamed, so a crash never leaves half a profile.
+public final class CalibrationProfile {
+    private static final String TAG = "CalibrationProfile";
+
+    private static final int MAGIC = 0x4543414C; // "ECAL"
+    private static final int VERSION = 1;
+
+    // Rooms, cases and OS audio updates drift; recalibrate after a week
+    public static final long MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+
+    // Identity
+    public String deviceModel = "";
+    public int audioSource = -1;
+    public boolean unprocessedFallback = false; // UNPROCESSED failed, MIC was used instead
+    public int sampleRate = 0;
+    public long createdAtMillis = 0;
+
+    // Measurements
+    public int latencySamples = 0;      // output-to-input delay of the direct path
+    public double noiseFloorRms = 0;    // capture RMS with nothing playing
+    public double directPathTailMs = 0; // how long the direct path rings after its peak
+    public double[] directPathResponse = new double[0]; // learned speaker-to-mic impulse response
+
+    // Usable by a tester with this sample rate and canceller length
+    public boolean isCompatible(int sampleRate, int taps) {
+        return this.sampleRate == sampleRate && directPathResponse.length == taps;
+    }
+
+    public boolean isStale(long nowMillis) {
+        return nowMillis - createdAtMillis > MAX_AGE_MS || nowMillis < createdAtMillis;
+    }
+
+    // File for a device model and audio source inside dir
+    public static File fileFor(File dir, String deviceModel, int audioSource) {
+        String safeModel = deviceModel.replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(dir, "calibration-" + safeModel + "-" + audioSource + ".bin");
+    }
+
+    public void save(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+
+        File file = fileFor(dir, deviceModel, audioSource);
+        File temp = new File(dir, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            write(out);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+
+        Log.d(TAG, "Saved calibration to " + file + " (" + file.length() + " bytes)");
+    }
+
+    // Loads the profile for a device model and audio source, or null if there is none or it
+    // cannot be read (missing, corrupt, older format)
+    public static CalibrationProfile load(File dir, String deviceModel, int audioSource) {
+        File file = fileFor(dir, deviceModel, audioSource);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            CalibrationProfile profile = read(in);
+            if (!profile.deviceModel.equals(deviceModel) || profile.audioSource != audioSource) {
+                Log.w(TAG, "Calibration file " + file + " belongs to another device or source");
+                return null;
+            }
+            return profile;
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable calibration " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(deviceModel);
+        out.writeInt(audioSource);
+        out.writeBoolean(unprocessedFallback);
+        out.writeInt(sampleRate);
+        out.writeLong(createdAtMillis);
+        out.writeInt(latencySamples);
+        out.writeFloat((float) noiseFloorRms);
+        out.writeFloat((float) directPathTailMs);
+        out.writeInt(directPathResponse.length);
+        for (double tap : directPathResponse) {
+            out.writeFloat((float) tap);
+        }
+    }
+
+    static CalibrationProfile read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a calibration profile");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported calibration version: " + version);
+        }
+
+        CalibrationProfile profile = new CalibrationProfile();
+        profile.deviceModel = in.readUTF();
+        profile.audioSource = in.readInt();
+        profile.unprocessedFallback = in.readBoolean();
+        profile.sampleRate = in.readInt();
+        profile.createdAtMillis = in.readLong();
+        profile.latencySamples = in.readInt();
+        profile.noiseFloorRms = in.readFloat();
+        profile.directPathTailMs = in.readFloat();
+
+        int taps = in.readInt();
+        if (taps < 0 || taps > 1 << 16) {
+            throw new IOException("Invalid response length: " + taps);
+        }
+        profile.directPathResponse = new double[taps];
+        for (int i = 0; i < taps; i++) {
+            profile.directPathResponse[i] = in.readFloat();
+        }
+        return profile;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%s source=%d%s latency=%d samples noise=%.1f RMS tail=%.2f ms",
+                deviceModel, audioSource, unprocessedFallback ? " (fallback)" : "",
+                latencySamples, noiseFloorRms, directPathTailMs);
+    }
+}
@@ -0,0 +1,129 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Sample-accurate transmit timeline: which template starts at which sample, tagged with
+// the configuration it belongs to. Rendered chunk by chunk into the AudioTrack stream, so
+// chirp positions in the capture are known exactly instead of from wall-clock times.
+public final class ChirpSchedule {
+    private final List<Entry> entries = new ArrayList<>();
+    private int totalSamples = 0;
+    private int longestTemplate = 0;
+
+    private static final class Entry {
+        final int start;
+        final short[] template;
+        final int tag;
+
+        Entry(int start, short[] template, int tag) {
+            this.start = start;
+            this.template = template;
+            this.tag = tag;
+        }
+    }
+
+    // Entries must be added in order of start sample
+    public void add(int start, short[] template, int tag) {
+        if (!entries.isEmpty() && start < entries.get(entries.size() - 1).start) {
+            throw new IllegalArgumentException("Chirps must be scheduled in order");
+        }
+        entries.add(new Entry(start, template, tag));
+        longestTemplate = Math.max(longestTemplate, template.length);
+        totalSamples = Math.max(totalSamples, start + template.length);
+    }
+
+    // Extends the timeline with trailing silence, e.g. for the last listen window
+    public void setTotalSamples(int totalSamples) {
+        this.totalSamples = Math.max(this.totalSamples, totalSamples);
+    }
+
+    public int getTotalSamples() {
+        return totalSamples;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getStart(int index) {
+        return entries.get(index).start;
+    }
+
+    public int getTag(int index) {
+        return entries.get(index).tag;
+    }
+
+    public short[] getTemplate(int index) {
+        return entries.get(index).template;
+    }
+
+    // Start samples of every chirp carrying the given tag
+    public int[] startsForTag(int tag) {
+        int count = 0;
+        for (Entry entry : entries) {
+            if (entry.tag == tag) count++;
+        }
+
+        int[] starts = new int[count];
+        int i = 0;
+        for (Entry entry : entries) {
+            if (entry.tag == tag) starts[i++] = entry.start;
+        }
+        return starts;
+    }
+
+    // Renders timeline samples [position, position + length) into out[0..length).
+    // Overlapping chirps are summed and clipped.
+    public void render(short[] out, int position, int length) {
+        int end = position + length;
+        int[] mix = null;
+
+        for (int i = firstEntryEndingAfter(position); i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.start >= end) break;
+
+            int from = Math.max(position, entry.start);
+            int to = Math.min(end, entry.start + entry.template.length);
+            if (from >= to) continue;
+
+            if (mix == null) mix = new int[length];
+            for (int s = from; s < to; s++) {
+                mix[s - position] += entry.template[s - entry.start];
+            }
+        }
+
+        if (mix == null) {
+            Arrays.fill(out, 0, length, (short) 0);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+        }
+    }
+
+    // Renders the whole timeline, e.g. as the reference for offline processing
+    public short[] render() {
+        short[] out = new short[totalSamples];
+        render(out, 0, totalSamples);
+        return out;
+    }
+
+    // Binary search for the first entry that could still overlap position
+    private int firstEntryEndingAfter(int position) {
+        int low = 0;
+        int high = entries.size();
+        int bound = position - longestTemplate;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries.get(mid).start <= bound) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
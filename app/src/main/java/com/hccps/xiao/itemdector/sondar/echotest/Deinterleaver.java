@@ -0,0 +1,88 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+// Splits interleaved multi-channel PCM (L R L R ...) into one primitive short[] per channel.
+//
+// Buffers grow by doubling, so appending each AudioRecord read costs one pass over the new
+// frames and the per-channel arrays can be handed straight to the analysis code.
+public final class Deinterleaver {
+    private final int channelCount;
+    private short[][] channels;
+    private int frames = 0;
+
+    public Deinterleaver(int channelCount, int initialFrames) {
+        if (channelCount <= 0) {
+            throw new IllegalArgumentException("Channel count must be positive");
+        }
+        this.channelCount = channelCount;
+        this.channels = new short[channelCount][Math.max(1, initialFrames)];
+    }
+
+    // One-shot split of a whole interleaved buffer
+    public static short[][] deinterleave(short[] interleaved, int channelCount) {
+        Deinterleaver deinterleaver = new Deinterleaver(channelCount, interleaved.length / channelCount);
+        deinterleaver.append(interleaved, 0, interleaved.length);
+        return deinterleaver.getChannels();
+    }
+
+    // Appends interleaved samples. A trailing partial frame is dropped, as AudioRecord only
+    // returns whole frames.
+    public void append(short[] interleaved, int offset, int length) {
+        int newFrames = length / channelCount;
+        ensureCapacity(frames + newFrames);
+
+        // Channel-outer loop: each destination array is written sequentially
+        for (int c = 0; c < channelCount; c++) {
+            short[] channel = channels[c];
+            int src = offset + c;
+            for (int i = 0; i < newFrames; i++) {
+                channel[frames + i] = interleaved[src];
+                src += channelCount;
+            }
+        }
+        frames += newFrames;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public int getFrameCount() {
+        return frames;
+    }
+
+    // Per-channel samples, trimmed to the frames captured so far
+    public short[][] getChannels() {
+        short[][] result = new short[channelCount][];
+        for (int c = 0; c < channelCount; c++) {
+            result[c] = getChannel(c);
+        }
+        return result;
+    }
+
+    // Backing array of a channel; only the first getFrameCount() samples are valid and the
+    // array is replaced when it grows
+    short[] buffer(int channel) {
+        return channels[channel];
+    }
+
+    public short[] getChannel(int channel) {
+        if (channels[channel].length == frames) {
+            return channels[channel];
+        }
+        short[] trimmed = new short[frames];
+        System.arraycopy(channels[channel], 0, trimmed, 0, frames);
+        return trimmed;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= channels[0].length) {
+            return;
+        }
+        int capacity = Math.max(required, channels[0].length * 2);
+        for (int c = 0; c < channelCount; c++) {
+            short[] grown = new short[capacity];
+            System.arraycopy(channels[c], 0, grown, 0, frames);
+            channels[c] = grown;
+        }
+    }
+}
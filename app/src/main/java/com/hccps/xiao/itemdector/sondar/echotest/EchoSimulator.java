@@ -0,0 +1,264 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Deterministic room-acoustics simulator.
+//
+// Renders what the mic would capture while a ChirpSchedule is played: point reflectors at
+// given ranges and gains, direct speaker-to-mic leakage, AR(1) colored background noise
+// and a capture clock that runs slightly off the playback clock. Everything is driven by
+// a seed, so scenarios are reproducible and come with exact ground truth for scoring the
+// detector off-device.
+public final class EchoSimulator {
+    public static final double SPEED_OF_SOUND = MultiChannelAnalyzer.SPEED_OF_SOUND;
+
+    // Fractional-delay interpolator
+    private static final int KERNEL_TAPS = 64;
+    private static final int KERNEL_PHASES = 512;
+    private static final double[][] KERNEL = buildKernel();
+
+    private final int sampleRate;
+    private final List<Reflector> reflectors;
+    private final double directPathGain;
+    private final double directPathDelayMs;
+    private final double noiseRms;
+    private final double noiseColor;
+    private final double clockDriftPpm;
+    private final long seed;
+
+    // A point reflector: echo arrives after the round trip to rangeM, scaled by gain
+    public static final class Reflector {
+        public final double rangeM;
+        public final double gain;
+
+        public Reflector(double rangeM, double gain) {
+            this.rangeM = rangeM;
+            this.gain = gain;
+        }
+
+        public double roundTripMs() {
+            return 2 * rangeM / SPEED_OF_SOUND * 1000;
+        }
+    }
+
+    private EchoSimulator(Builder builder) {
+        this.sampleRate = builder.sampleRate;
+        this.reflectors = Collections.unmodifiableList(new ArrayList<>(builder.reflectors));
+        this.directPathGain = builder.directPathGain;
+        this.directPathDelayMs = builder.directPathDelayMs;
+        this.noiseRms = builder.noiseRms;
+        this.noiseColor = builder.noiseColor;
+        this.clockDriftPpm = builder.clockDriftPpm;
+        this.seed = builder.seed;
+    }
+
+    // Random but reproducible scenario: 1-3 reflectors between 3 and 8 m (inside the default
+    // 5-50 ms echo gate), typical leakage, noise and drift
+    public static EchoSimulator random(long seed, int sampleRate) {
+        Random random = new Random(seed);
+        Builder builder = new Builder(sampleRate)
+                .setSeed(seed)
+                .setDirectPath(0.3 + random.nextDouble() * 0.5, 0.2 + random.nextDouble() * 0.3)
+                .setNoise(20 + random.nextDouble() * 60, 0.5 + random.nextDouble() * 0.45)
+                .setClockDriftPpm((random.nextDouble() * 2 - 1) * 50);
+
+        int count = 1 + random.nextInt(3);
+        for (int i = 0; i < count; i++) {
+            builder.addReflector(3.0 + random.nextDouble() * 5.0, 0.02 + random.nextDouble() * 0.1);
+        }
+        return builder.build();
+    }
+
+    public List<Reflector> getReflectors() {
+        return reflectors;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    // Renders the capture of a whole schedule
+    public Capture render(ChirpSchedule schedule) {
+        double clockRatio = 1 + clockDriftPpm * 1e-6; // capture samples per playback sample
+        int length = (int) Math.ceil(schedule.getTotalSamples() * clockRatio);
+        double[] mix = new double[length];
+
+        // Paths in playback samples: direct leakage first, then each reflector
+        double[] pathDelays = new double[reflectors.size() + 1];
+        double[] pathGains = new double[reflectors.size() + 1];
+        pathDelays[0] = directPathDelayMs * sampleRate / 1000;
+        pathGains[0] = directPathGain;
+        for (int r = 0; r < reflectors.size(); r++) {
+            pathDelays[r + 1] = reflectors.get(r).roundTripMs() * sampleRate / 1000;
+            pathGains[r + 1] = reflectors.get(r).gain;
+        }
+
+        for (int i = 0; i < schedule.size(); i++) {
+            short[] template = schedule.getTemplate(i);
+            for (int p = 0; p < pathDelays.length; p++) {
+                addDelayed(mix, template, schedule.getStart(i) + pathDelays[p], pathGains[p], clockRatio);
+            }
+        }
+
+        addNoise(mix);
+
+        short[] samples = new short[length];
+        for (int n = 0; n < length; n++) {
+            samples[n] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(mix[n])));
+        }
+
+        // Ground truth in capture samples
+        int[] chirpStarts = new int[schedule.size()];
+        double[][] arrivals = new double[schedule.size()][reflectors.size()];
+        for (int i = 0; i < schedule.size(); i++) {
+            chirpStarts[i] = (int) Math.round(schedule.getStart(i) * clockRatio);
+            for (int r = 0; r < reflectors.size(); r++) {
+                arrivals[i][r] = (schedule.getStart(i) + pathDelays[r + 1]) * clockRatio;
+            }
+        }
+
+        return new Capture(samples, chirpStarts, arrivals);
+    }
+
+    // Adds gain * template, starting at a fractional playback sample, resampled onto the
+    // capture clock with a windowed-sinc interpolator that stays flat up to the chirp band
+    private static void addDelayed(double[] mix, short[] template, double start, double gain, double clockRatio) {
+        int half = KERNEL_TAPS / 2;
+        int first = Math.max(0, (int) Math.floor((start - half) * clockRatio));
+        int last = Math.min(mix.length - 1, (int) Math.ceil((start + template.length + half) * clockRatio));
+
+        for (int n = first; n <= last; n++) {
+            double u = n / clockRatio - start;
+            int k = (int) Math.floor(u);
+            int phase = (int) Math.round((u - k) * KERNEL_PHASES);
+            if (phase == KERNEL_PHASES) {
+                k++;
+                phase = 0;
+            }
+
+            // Tap t weights template[k + t - (half - 1)]
+            double[] kernel = KERNEL[phase];
+            int offset = k - (half - 1);
+            int tFrom = Math.max(0, -offset);
+            int tTo = Math.min(KERNEL_TAPS, template.length - offset);
+
+            double value = 0;
+            for (int t = tFrom; t < tTo; t++) {
+                value += kernel[t] * template[offset + t];
+            }
+            mix[n] += gain * value;
+        }
+    }
+
+    // Blackman-windowed sinc, tabulated at KERNEL_PHASES fractional offsets
+    private static double[][] buildKernel() {
+        int half = KERNEL_TAPS / 2;
+        double[][] kernel = new double[KERNEL_PHASES][KERNEL_TAPS];
+
+        for (int p = 0; p < KERNEL_PHASES; p++) {
+            double fraction = (double) p / KERNEL_PHASES;
+            for (int t = 0; t < KERNEL_TAPS; t++) {
+                double x = fraction + (half - 1) - t;
+                double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+                double window = 0.42 + 0.5 * Math.cos(2 * Math.PI * x / KERNEL_TAPS)
+                        + 0.08 * Math.cos(4 * Math.PI * x / KERNEL_TAPS);
+                kernel[p][t] = sinc * window;
+            }
+        }
+        return kernel;
+    }
+
+    // AR(1) noise: color 0 is white, values towards 1 push energy to low frequencies.
+    // Scaled so the output RMS matches noiseRms whatever the color.
+    private void addNoise(double[] mix) {
+        if (noiseRms <= 0) {
+            return;
+        }
+
+        Random random = new Random(seed);
+        double innovation = noiseRms * Math.sqrt(1 - noiseColor * noiseColor);
+        double state = random.nextGaussian() * noiseRms;
+
+        for (int n = 0; n < mix.length; n++) {
+            state = noiseColor * state + innovation * random.nextGaussian();
+            mix[n] += state;
+        }
+    }
+
+    // Rendered capture plus the ground truth needed to score a detector
+    public static final class Capture {
+        public final short[] samples;
+        public final int[] chirpStarts; // emission of each chirp, in capture samples
+        private final double[][] arrivals; // [chirp][reflector] echo onset, in capture samples
+
+        Capture(short[] samples, int[] chirpStarts, double[][] arrivals) {
+            this.samples = samples;
+            this.chirpStarts = chirpStarts;
+            this.arrivals = arrivals;
+        }
+
+        // Capture sample at which the echo of chirp from reflector begins
+        public double arrivalSample(int chirp, int reflector) {
+            return arrivals[chirp][reflector];
+        }
+
+        // Echo onset relative to the chirp's own emission, in ms
+        public double echoDelayMs(int chirp, int reflector, int sampleRate) {
+            return (arrivals[chirp][reflector] - chirpStarts[chirp]) * 1000.0 / sampleRate;
+        }
+    }
+
+    public static final class Builder {
+        private final int sampleRate;
+        private final List<Reflector> reflectors = new ArrayList<>();
+        private double directPathGain = 0;
+        private double directPathDelayMs = 0;
+        private double noiseRms = 0;
+        private double noiseColor = 0;
+        private double clockDriftPpm = 0;
+        private long seed = 0;
+
+        public Builder(int sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+
+        public Builder addReflector(double rangeM, double gain) {
+            reflectors.add(new Reflector(rangeM, gain));
+            return this;
+        }
+
+        // Speaker-to-mic leakage; delayMs is the acoustic path across the device
+        public Builder setDirectPath(double delayMs, double gain) {
+            this.directPathDelayMs = delayMs;
+            this.directPathGain = gain;
+            return this;
+        }
+
+        public Builder setNoise(double rms, double color) {
+            if (color < 0 || color >= 1) {
+                throw new IllegalArgumentException("Noise color must be in [0, 1)");
+            }
+            this.noiseRms = rms;
+            this.noiseColor = color;
+            return this;
+        }
+
+        // Positive drift means the capture clock runs fast relative to playback
+        public Builder setClockDriftPpm(double ppm) {
+            this.clockDriftPpm = ppm;
+            return this;
+        }
+
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public EchoSimulator build() {
+            return new EchoSimulator(this);
+        }
+    }
+}
@@ -16,7 +16,7 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -27,9 +27,20 @@ public class EchoTestActivity extends AppCompatActivity {
     private static final int PERMISSION_REQUEST_CODE = 101;
     private static final int AUTO_TEST_COUNT = 10;
 
+    // Sweep grid: three 4 kHz bands x two chirp durations, 80ms listen window each
+    private static final List<WaveformConfig> SWEEP_CONFIGS = Arrays.asList(
+            new WaveformConfig(17000, 21000, 10, 80),
+            new WaveformConfig(17000, 21000, 20, 80),
+            new WaveformConfig(18000, 22000, 10, 80),
+            new WaveformConfig(18000, 22000, 20, 80),
+            new WaveformConfig(19000, 23000, 10, 80),
+            new WaveformConfig(19000, 23000, 20, 80));
+
     // UI Components
     private Button testButton;
     private Button autoTestButton;
+    private Button sweepButton;
+    private Button multiBandButton;
     private TextView statusText;
     private TextView resultText;
     private ProgressBar progressBar;
@@ -39,11 +50,13 @@ public class EchoTestActivity extends AppCompatActivity {
     private EchoTester echoTester;
     private boolean isRunningTest = false;
     private boolean isRunningAutoTest = false;
+    private boolean isRunningSweep = false;
+    private boolean isRunningMultiBand = false;
     private Handler mainHandler;
 
     // Auto-test variables
     private int currentAutoTestNumber = 0;
-    private List<EchoTester.TestResult> autoTestResults = new ArrayList<>();
+    private ResultAggregator autoTestStats = new ResultAggregator();
     private StringBuilder resultsBuilder = new StringBuilder();
 
     @Override
@@ -54,6 +67,8 @@ public class EchoTestActivity extends AppCompatActivity {
         // Initialize UI components
         testButton = findViewById(R.id.test_button);
         autoTestButton = findViewById(R.id.auto_test_button);
+        sweepButton = findViewById(R.id.sweep_button);
+        multiBandButton = findViewById(R.id.multi_band_button);
         statusText = findViewById(R.id.status_text);
         resultText = findViewById(R.id.result_text);
         progressBar = findViewById(R.id.progress_bar);
@@ -79,18 +94,71 @@ public class EchoTestActivity extends AppCompatActivity {
             }
         });
 
-        // Create the echo tester
-        echoTester = new EchoTester();
+        // Set up sweep button click listener
+        sweepButton.setOnClickListener(v -> {
+            if (isRunningSweep) {
+                stopSweep();
+            } else {
+                startSweep();
+            }
+        });
+
+        // Set up multi-band button click listener
+        multiBandButton.setOnClickListener(v -> {
+            if (isRunningMultiBand) {
+                stopMultiBand();
+            } else {
+                startMultiBand();
+            }
+        });
+
+        // Buttons stay disabled until the shared echo tester is ready
+        setButtonsEnabled(false);
 
         // Check for required permissions
         if (!hasPermissions()) {
             requestPermissions();
             statusText.setText("Waiting for microphone permission");
         } else {
-            statusText.setText("Ready to test echo detection");
+            acquireEchoTester();
         }
     }
 
+    // Get the process-wide echo tester; initialization runs off the main thread the first
+    // time and is reused on every later activity instance
+    private void acquireEchoTester() {
+        if (!EchoTesterHolder.isReady()) {
+            statusText.setText("Initializing audio...");
+        }
+
+        EchoTesterHolder.acquire(this).whenComplete((tester, error) -> postToUi(() -> {
+            if (error != null) {
+                statusText.setText("Audio initialization failed: " + error.getMessage());
+                return;
+            }
+            echoTester = tester;
+            statusText.setText("Ready to test echo detection");
+            setButtonsEnabled(true);
+        }));
+    }
+
+    // Runs a tester callback on the main thread, unless this activity has been destroyed
+    // in the meantime; the shared tester outlives it
+    private void postToUi(Runnable action) {
+        mainHandler.post(() -> {
+            if (!isDestroyed()) {
+                action.run();
+            }
+        });
+    }
+
+    private void setButtonsEnabled(boolean enabled) {
+        testButton.setEnabled(enabled);
+        autoTestButton.setEnabled(enabled);
+        sweepButton.setEnabled(enabled);
+        multiBandButton.setEnabled(enabled);
+    }
+
     private boolean hasPermissions() {
         return ContextCompat.checkSelfPermission(this,
                 Manifest.permission.RECORD_AUDIO) == PackageManager.PERMISSION_GRANTED;
@@ -107,13 +175,10 @@ public class EchoTestActivity extends AppCompatActivity {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
         if (requestCode == PERMISSION_REQUEST_CODE) {
             if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                statusText.setText("Ready to test echo detection");
-                testButton.setEnabled(true);
-                autoTestButton.setEnabled(true);
+                acquireEchoTester();
             } else {
                 statusText.setText("Microphone permission required");
-                testButton.setEnabled(false);
-                autoTestButton.setEnabled(false);
+                setButtonsEnabled(false);
             }
         }
     }
@@ -127,6 +192,8 @@ public class EchoTestActivity extends AppCompatActivity {
         isRunningTest = true;
         testButton.setText("Stop Test");
         autoTestButton.setEnabled(false);
+        sweepButton.setEnabled(false);
+        multiBandButton.setEnabled(false);
         statusText.setText("Running echo detection test...");
         resultText.setText("");
         progressBar.setVisibility(View.VISIBLE);
@@ -135,7 +202,7 @@ public class EchoTestActivity extends AppCompatActivity {
         echoTester.startTest(new EchoTester.EchoTestCallback() {
             @Override
             public void onProgress(int percentComplete) {
-                mainHandler.post(() -> {
+                postToUi(() -> {
                     progressBar.setProgress(percentComplete);
                     statusText.setText("Testing: " + percentComplete + "% complete");
                 });
@@ -143,7 +210,7 @@ public class EchoTestActivity extends AppCompatActivity {
 
             @Override
             public void onTestComplete(EchoTester.TestResult result) {
-                mainHandler.post(() -> {
+                postToUi(() -> {
                     progressBar.setVisibility(View.INVISIBLE);
                     statusText.setText("Test completed");
 
@@ -157,7 +224,8 @@ public class EchoTestActivity extends AppCompatActivity {
                                     "Echo Delay: %.2f ms\n" +
                                     "Echo Count: %d\n\n" +
                                     "Raw Stats:\n" +
-                                    "Min: %d | Max: %d | Mean: %.2f | RMS: %.2f",
+                                    "Min: %d | Max: %d | Mean: %.2f | RMS: %.2f\n\n" +
+                                    "Session Audio: %.1f KB raw, %.1f KB compressed (%.1f%%)",
                             result.echoDetected ? "YES" : "NO",
                             result.signalQuality,
                             result.signalEnergy,
@@ -168,22 +236,39 @@ public class EchoTestActivity extends AppCompatActivity {
                             result.minValue,
                             result.maxValue,
                             result.meanValue,
-                            result.rmsValue);
+                            result.rmsValue,
+                            result.rawAudioBytes / 1024.0,
+                            result.compressedAudioBytes / 1024.0,
+                            result.rawAudioBytes > 0
+                                    ? result.compressedAudioBytes * 100.0 / result.rawAudioBytes : 0);
+
+                    if (result.channelResults != null) {
+                        resultStr += String.format("\n\nMics: %d | Inter-mic Delay: %.3f ms | Bearing: %.1f deg",
+                                result.channelResults.length, result.channelDelaysMs[1], result.echoBearingDegrees);
+                        for (int c = 0; c < result.channelResults.length; c++) {
+                            resultStr += String.format("\nMic %d: SNR %.2f dB | Delay %.2f ms",
+                                    c, result.channelResults[c].snr, result.channelResults[c].echoDelayMs);
+                        }
+                    }
 
                     resultText.setText(resultStr);
                     testButton.setText("Start Test");
                     autoTestButton.setEnabled(true);
+                    sweepButton.setEnabled(true);
+                    multiBandButton.setEnabled(true);
                     isRunningTest = false;
                 });
             }
 
             @Override
             public void onError(String errorMessage) {
-                mainHandler.post(() -> {
+                postToUi(() -> {
                     progressBar.setVisibility(View.INVISIBLE);
                     statusText.setText("Test failed: " + errorMessage);
                     testButton.setText("Start Test");
                     autoTestButton.setEnabled(true);
+                    sweepButton.setEnabled(true);
+                    multiBandButton.setEnabled(true);
                     isRunningTest = false;
                 });
             }
@@ -198,7 +283,7 @@ public class EchoTestActivity extends AppCompatActivity {
 
         isRunningAutoTest = true;
         currentAutoTestNumber = 0;
-        autoTestResults.clear();
+        autoTestStats = new ResultAggregator();
         resultsBuilder = new StringBuilder();
 
         // Add timestamp header to results
@@ -209,6 +294,8 @@ public class EchoTestActivity extends AppCompatActivity {
         resultText.setText(resultsBuilder.toString());
         autoTestButton.setText("Stop Auto Test");
         testButton.setEnabled(false);
+        sweepButton.setEnabled(false);
+        multiBandButton.setEnabled(false);
 
         runNextAutoTest();
     }
@@ -228,7 +315,7 @@ public class EchoTestActivity extends AppCompatActivity {
         echoTester.startTest(new EchoTester.EchoTestCallback() {
             @Override
             public void onProgress(int percentComplete) {
-                mainHandler.post(() -> {
+                postToUi(() -> {
                     progressBar.setProgress(percentComplete);
                     statusText.setText("Auto Test " + currentAutoTestNumber + "/" +
                             AUTO_TEST_COUNT + ": " + percentComplete + "% complete");
@@ -237,9 +324,9 @@ public class EchoTestActivity extends AppCompatActivity {
 
             @Override
             public void onTestComplete(EchoTester.TestResult result) {
-                mainHandler.post(() -> {
-                    // Add this result to our collection
-                    autoTestResults.add(result);
+                postToUi(() -> {
+                    // Fold this result into the running summary
+                    autoTestStats.add(result);
 
                     // Append individual result to the results text
                     resultsBuilder.append("TEST #").append(currentAutoTestNumber).append(":\n");
@@ -247,6 +334,7 @@ public class EchoTestActivity extends AppCompatActivity {
                             .append(" | Quality: ").append(result.signalQuality)
                             .append(" | SNR: ").append(String.format("%.2f dB", result.snr))
                             .append(" | Energy: ").append(String.format("%.2f", result.signalEnergy))
+                            .append(" | Audio: ").append(String.format("%.1f KB", result.compressedAudioBytes / 1024.0))
                             .append("\n\n");
 
                     resultText.setText(resultsBuilder.toString());
@@ -258,7 +346,7 @@ public class EchoTestActivity extends AppCompatActivity {
 
             @Override
             public void onError(String errorMessage) {
-                mainHandler.post(() -> {
+                postToUi(() -> {
                     resultsBuilder.append("TEST #").append(currentAutoTestNumber)
                             .append(" ERROR: ").append(errorMessage).append("\n\n");
                     resultText.setText(resultsBuilder.toString());
@@ -275,39 +363,169 @@ public class EchoTestActivity extends AppCompatActivity {
         progressBar.setVisibility(View.INVISIBLE);
         autoTestButton.setText("Auto Test (10x)");
         testButton.setEnabled(true);
+        sweepButton.setEnabled(true);
+        multiBandButton.setEnabled(true);
 
-        if (autoTestResults.isEmpty()) {
+        if (autoTestStats.getRunCount() == 0) {
             statusText.setText("Auto test completed with no results");
             return;
         }
 
-        // Calculate stats from all tests
-        int echoCount = 0;
-        double totalSnr = 0;
-        double totalEnergy = 0;
+        // Add summary to results
+        resultsBuilder.append("===== AUTO TEST SUMMARY =====\n");
+        resultsBuilder.append(autoTestStats.summary());
 
-        for (EchoTester.TestResult result : autoTestResults) {
-            if (result.echoDetected) {
-                echoCount++;
+        resultText.setText(resultsBuilder.toString());
+        statusText.setText("Auto test completed: " + autoTestStats.getEchoCount() + "/"
+                + autoTestStats.getRunCount() + " echoes detected");
+    }
+
+    private void startSweep() {
+        if (!hasPermissions()) {
+            requestPermissions();
+            return;
+        }
+
+        isRunningSweep = true;
+        sweepButton.setText("Stop Sweep");
+        testButton.setEnabled(false);
+        autoTestButton.setEnabled(false);
+        multiBandButton.setEnabled(false);
+        statusText.setText("Running sweep over " + SWEEP_CONFIGS.size() + " configurations...");
+        resultText.setText("");
+        progressBar.setVisibility(View.VISIBLE);
+        progressBar.setProgress(0);
+
+        echoTester.startSweep(SWEEP_CONFIGS, AUTO_TEST_COUNT, new SweepRunner.SweepCallback() {
+            @Override
+            public void onProgress(int percentComplete) {
+                postToUi(() -> {
+                    progressBar.setProgress(percentComplete);
+                    statusText.setText("Sweep: " + percentComplete + "% complete");
+                });
+            }
+
+            @Override
+            public void onSweepComplete(SweepRunner.SweepResult result) {
+                postToUi(() -> {
+                    StringBuilder builder = new StringBuilder();
+                    builder.append(String.format("SWEEP - %d configs x %d reps in %.1f s\n\n",
+                            result.configs.size(), AUTO_TEST_COUNT, result.durationMs / 1000));
+
+                    for (int i = 0; i < result.configs.size(); i++) {
+                        EchoTester.TestResult cell = result.cellResults[i];
+                        builder.append(result.configs.get(i).label()).append(":\n");
+                        builder.append("Echo: ").append(cell.echoDetected ? "YES" : "NO")
+                                .append(" | Quality: ").append(cell.signalQuality)
+                                .append(" | SNR: ").append(String.format("%.2f dB", cell.snr))
+                                .append(" | Delay: ").append(String.format("%.2f ms", cell.echoDelayMs))
+                                .append(" | Count: ").append(cell.echoCount)
+                                .append("\n\n");
+                    }
+
+                    resultText.setText(builder.toString());
+                    statusText.setText("Sweep completed");
+                    finishSweep();
+                });
             }
-            totalSnr += result.snr;
-            totalEnergy += result.signalEnergy;
+
+            @Override
+            public void onError(String errorMessage) {
+                postToUi(() -> {
+                    statusText.setText(errorMessage);
+                    finishSweep();
+                });
+            }
+        });
+    }
+
+    private void stopSweep() {
+        echoTester.stopTest();
+        statusText.setText("Sweep stopped");
+        finishSweep();
+    }
+
+    private void finishSweep() {
+        isRunningSweep = false;
+        sweepButton.setText("Sweep");
+        testButton.setEnabled(true);
+        autoTestButton.setEnabled(true);
+        multiBandButton.setEnabled(true);
+        progressBar.setVisibility(View.INVISIBLE);
+    }
+
+    private void startMultiBand() {
+        if (!hasPermissions()) {
+            requestPermissions();
+            return;
         }
 
-        double echoRate = (double) echoCount / autoTestResults.size() * 100;
-        double avgSnr = totalSnr / autoTestResults.size();
-        double avgEnergy = totalEnergy / autoTestResults.size();
+        isRunningMultiBand = true;
+        multiBandButton.setText("Stop Multi-band");
+        testButton.setEnabled(false);
+        autoTestButton.setEnabled(false);
+        sweepButton.setEnabled(false);
+        statusText.setText("Running " + EchoTester.MULTI_BAND_COUNT + " sub-bands in parallel...");
+        resultText.setText("");
+        progressBar.setVisibility(View.VISIBLE);
+        progressBar.setProgress(0);
 
-        // Add summary to results
-        resultsBuilder.append("===== AUTO TEST SUMMARY =====\n");
-        resultsBuilder.append(String.format("Tests Run: %d\n", autoTestResults.size()));
-        resultsBuilder.append(String.format("Echo Detection Rate: %.1f%% (%d/%d)\n",
-                echoRate, echoCount, autoTestResults.size()));
-        resultsBuilder.append(String.format("Average SNR: %.2f dB\n", avgSnr));
-        resultsBuilder.append(String.format("Average Signal Energy: %.2f\n", avgEnergy));
+        echoTester.startMultiBand(EchoTester.MULTI_BAND_COUNT, AUTO_TEST_COUNT, new MultiBandRunner.MultiBandCallback() {
+            @Override
+            public void onProgress(int percentComplete) {
+                postToUi(() -> {
+                    progressBar.setProgress(percentComplete);
+                    statusText.setText("Multi-band: " + percentComplete + "% complete");
+                });
+            }
 
-        resultText.setText(resultsBuilder.toString());
-        statusText.setText("Auto test completed: " + echoCount + "/" + autoTestResults.size() + " echoes detected");
+            @Override
+            public void onMultiBandComplete(MultiBandRunner.MultiBandResult result) {
+                postToUi(() -> {
+                    StringBuilder builder = new StringBuilder();
+                    builder.append(String.format("MULTI-BAND - %d sub-bands x %d reps in %.1f s, %.1f measurements/s\n\n",
+                            result.bands.size(), AUTO_TEST_COUNT, result.durationMs / 1000, result.measurementsPerSecond));
+
+                    for (int i = 0; i < result.bands.size(); i++) {
+                        EchoTester.TestResult band = result.bandResults[i];
+                        builder.append(result.bands.get(i).label()).append(":\n");
+                        builder.append("Echo: ").append(band.echoDetected ? "YES" : "NO")
+                                .append(" | SNR: ").append(String.format("%.2f dB", band.snr))
+                                .append(" | Delay: ").append(String.format("%.2f ms", band.echoDelayMs))
+                                .append(" | Count: ").append(band.echoCount)
+                                .append(" | Crosstalk: ").append(String.format("%.1f dB", result.worstCrosstalkDb[i]))
+                                .append("\n\n");
+                    }
+
+                    resultText.setText(builder.toString());
+                    statusText.setText("Multi-band run completed");
+                    finishMultiBand();
+                });
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                postToUi(() -> {
+                    statusText.setText(errorMessage);
+                    finishMultiBand();
+                });
+            }
+        });
+    }
+
+    private void stopMultiBand() {
+        echoTester.stopTest();
+        statusText.setText("Multi-band run stopped");
+        finishMultiBand();
+    }
+
+    private void finishMultiBand() {
+        isRunningMultiBand = false;
+        multiBandButton.setText("Multi-band");
+        testButton.setEnabled(true);
+        autoTestButton.setEnabled(true);
+        sweepButton.setEnabled(true);
+        progressBar.setVisibility(View.INVISIBLE);
     }
 
     private void stopTest() {
@@ -315,6 +533,8 @@ public class EchoTestActivity extends AppCompatActivity {
         statusText.setText("Test stopped");
         testButton.setText("Start Test");
         autoTestButton.setEnabled(true);
+        sweepButton.setEnabled(true);
+        multiBandButton.setEnabled(true);
         progressBar.setVisibility(View.INVISIBLE);
         isRunningTest = false;
     }
@@ -328,6 +548,13 @@ public class EchoTestActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        echoTester.release();
+        // The shared tester lives as long as the process, so coming back to this screen
+        // needs no re-initialization. Just don't let anything from this instance carry on:
+        // no further auto-test rounds, no pending UI updates, no running measurement.
+        isRunningAutoTest = false;
+        mainHandler.removeCallbacksAndMessages(null);
+        if (echoTester != null) {
+            echoTester.stopTest();
+        }
     }
 }
\ No newline at end of file
@@ -5,78 +5,161 @@ import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.AudioTrack;
 import android.media.MediaRecorder;
+import android.os.Build;
 import android.util.Log;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class EchoTester {
     private static final String TAG = "EchoTester";
 
     // Audio configuration - based on Phase 1 findings
-    private static final int SAMPLE_RATE = 48000; // Hz
+    static final int SAMPLE_RATE = 48000; // Hz
     private static final int CHIRP_MIN_FREQ = 18000; // Hz
     private static final int CHIRP_MAX_FREQ = 22000; // Hz
     private static final int CHIRP_DURATION_MS = 20; // ms
     private static final int CHIRP_GAP_MS = 500; // ms between chirps
     private static final int BUFFER_SIZE = SAMPLE_RATE / 10; // 100ms buffer
     private static final int TEST_DURATION_MS = 5000; // 5 seconds test
+    private static final int STREAM_CHUNK = SAMPLE_RATE / 100; // 10ms per write/read in sweeps
+
+    // Waveform used by single tests
+    public static final WaveformConfig DEFAULT_WAVEFORM =
+            new WaveformConfig(CHIRP_MIN_FREQ, CHIRP_MAX_FREQ, CHIRP_DURATION_MS, CHIRP_GAP_MS - CHIRP_DURATION_MS);
+
+    // Typical spacing of the top and bottom mics on a phone, used to bound inter-mic lags
+    public static final double MIC_SPACING_M = 0.14;
+
+    // Echo window opens this long after the chirp ends, to stay clear of the direct path
+    public static final int DEFAULT_ECHO_GATE_MS = 5;
+    // ...and this long once the direct path has been cancelled
+    private static final int CANCELLED_ECHO_GATE_MS = 1;
+
+    // Direct-path canceller: 128 taps (2.7 ms) covers the speaker-to-mic ringing once the
+    // reference is aligned. Whatever falls inside the taps is cancelled, so this also sets
+    // the closest echo kept: (taps - lead) samples, ~0.35 m.
+    private static final int CANCELLER_TAPS = 128;
+    private static final double CANCELLER_STEP = 0.5;
+    private static final int MAX_LATENCY_MS = 200; // longest output-to-input latency searched
+    private static final int LATENCY_SEARCH_MS = 20; // search around a calibrated latency, either side
+    private static final int CANCELLER_LEAD = 32; // taps kept before the estimated direct path,
+                                                  // enough for the other mic hearing it earlier
+
+    // Reported to a run's callback when another run still holds the tester
+    private static final String BUSY_MESSAGE = "Another test is still running";
+
+    // Sub-bands in multi-band mode
+    public static final int MULTI_BAND_COUNT = 4;
 
     // Detection thresholds
-    private static final double ECHO_THRESHOLD = 40; // Minimum energy for echo detection
+    static final double ECHO_THRESHOLD = 40; // Minimum energy for echo detection
+    static final int ECHO_WINDOW_MS = 50; // echoes are looked for up to this long after a chirp
+    static final int NOISE_WINDOW_SAMPLES = 1000; // noise is measured over this much quiet
     private static final double SIGNAL_NOISE_RATIO_THRESHOLD = 0.5; // Minimum SNR for valid echo
+    private static final double NOISE_FLOOR_MARGIN = 4; // calibrated threshold: 6 dB over the noise floor
+
+    // Calibration run: short slots so it finishes in about a second. The last
+    // CALIBRATION_NOISE_MS of each slot, long after the echoes, measures the noise floor.
+    private static final WaveformConfig CALIBRATION_WAVEFORM =
+            new WaveformConfig(CHIRP_MIN_FREQ, CHIRP_MAX_FREQ, CHIRP_DURATION_MS, 130);
+    private static final int CALIBRATION_CHIRPS = 8;
+    private static final int CALIBRATION_NOISE_MS = 30;
+    private static final int CALIBRATION_PASSES = 2; // canceller passes over the capture
+    private static final double DIRECT_PATH_TAIL_LEVEL = 0.03; // -30 dB re. the direct-path peak
+    private static final int RINGING_SEARCH_SAMPLES = 8; // direct-path pulse searched this far either side
+    private static final double RINGING_BLOCK_MS = 0.25; // ringing ends at a gap this long
 
     // Audio components
     private AudioRecord audioRecord;
     private AudioTrack audioTrack;
     private short[] chirpTemplate;
-
-    // Test state
-    private AtomicBoolean isRunning = new AtomicBoolean(false);
+    private final Map<WaveformConfig, short[]> templateCache = new ConcurrentHashMap<>();
+    private final int requestedChannels;
+    private int captureChannels = 1;
+    private int audioSource = -1;
+    private boolean unprocessedFallback = false;
+
+    // Per-device calibration, loaded at startup and refreshed when stale
+    private final File calibrationDir; // null: calibrate in memory only
+    private volatile CalibrationProfile calibration;
+
+    // Direct-path cancellation for tests and sweeps. Coefficients carry over between runs,
+    // so each one starts from what the previous one learned.
+    private final NlmsCanceller directPathCanceller = new NlmsCanceller(CANCELLER_TAPS, CANCELLER_STEP);
+    private volatile boolean directPathCancellation = true;
+    private volatile int referenceDelaySamples = -1; // expected delay, -1: unknown
+
+    // Test state: the running measurement's token, null when idle. Each run gets its own,
+    // cleared by stopTest(), so a stopped run that is still winding down can neither end
+    // nor be mistaken for the run started after it.
+    private final AtomicReference<AtomicBoolean> activeRun = new AtomicReference<>();
     private ExecutorService executor;
+    private ExecutorService analysisPool;
     private EchoTestCallback callback;
 
     // Constructor
     public EchoTester() {
+        this(1);
+    }
+
+    // Capture from channelCount mics if the device supports it, mono otherwise
+    public EchoTester(int channelCount) {
+        this(channelCount, null);
+    }
+
+    // As above, keeping calibration profiles in calibrationDir across sessions
+    public EchoTester(int channelCount, File calibrationDir) {
+        requestedChannels = channelCount;
+        this.calibrationDir = calibrationDir;
         executor = Executors.newSingleThreadExecutor();
         initAudio();
         generateChirpTemplate();
+        loadCalibration();
+
+        // Per-channel and per-band analysis run in parallel where there are cores for it
+        int workers = Math.min(Math.max(captureChannels, MULTI_BAND_COUNT), Runtime.getRuntime().availableProcessors());
+        if (workers > 1) {
+            analysisPool = Executors.newFixedThreadPool(workers);
+        }
+    }
+
+    // False if the audio devices could not be set up
+    public boolean isInitialized() {
+        return audioRecord != null && audioTrack != null;
+    }
+
+    // Number of channels actually being captured
+    public int getCaptureChannels() {
+        return captureChannels;
     }
 
     // Initialize audio components
     private void initAudio() {
         try {
-            // Configure audio record
-            int recordBufferSize = AudioRecord.getMinBufferSize(
-                    SAMPLE_RATE,
-                    AudioFormat.CHANNEL_IN_MONO,
-                    AudioFormat.ENCODING_PCM_16BIT) * 2;
-
-            Log.d(TAG, "Record buffer size: " + recordBufferSize);
-
-            try {
-                audioRecord = new AudioRecord(
-                        MediaRecorder.AudioSource.UNPROCESSED, // Raw audio
-                        SAMPLE_RATE,
-                        AudioFormat.CHANNEL_IN_MONO,
-                        AudioFormat.ENCODING_PCM_16BIT,
-                        recordBufferSize);
-
-                Log.d(TAG, "Using UNPROCESSED audio source");
-            } catch (Exception e) {
-                Log.w(TAG, "Failed to initialize UNPROCESSED audio source. Using MIC instead: " + e.getMessage());
-
-                audioRecord = new AudioRecord(
-                        MediaRecorder.AudioSource.MIC,
-                        SAMPLE_RATE,
-                        AudioFormat.CHANNEL_IN_MONO,
-                        AudioFormat.ENCODING_PCM_16BIT,
-                        recordBufferSize);
+            // Configure audio record: requested channel count first, mono as the fallback
+            for (int channels : requestedChannels > 1 ? new int[]{requestedChannels, 1} : new int[]{1}) {
+                audioRecord = createAudioRecord(channels);
+                if (audioRecord != null) {
+                    captureChannels = channels;
+                    break;
+                }
             }
 
+            Log.d(TAG, "Capturing " + captureChannels + " channel(s)");
+
             // Configure audio track
             int playBufferSize = AudioTrack.getMinBufferSize(
                     SAMPLE_RATE,
@@ -106,27 +189,60 @@ public class EchoTester {
         }
     }
 
-    // Generate chirp signal
-    private void generateChirpTemplate() {
-        int chirpSamples = (int) (SAMPLE_RATE * CHIRP_DURATION_MS / 1000.0);
-        chirpTemplate = new short[chirpSamples];
-
-        // Calculate chirp rate (Hz/s)
-        double chirpRate = (double) (CHIRP_MAX_FREQ - CHIRP_MIN_FREQ) / (CHIRP_DURATION_MS / 1000.0);
-
-        // Generate linear chirp with Hamming window
-        for (int i = 0; i < chirpSamples; i++) {
-            double time = (double) i / SAMPLE_RATE;
-            double instantFreq = CHIRP_MIN_FREQ + chirpRate * time;
-            double phase = 2 * Math.PI * (CHIRP_MIN_FREQ * time + 0.5 * chirpRate * time * time);
-
-            // Apply Hamming window
-            double window = 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (chirpSamples - 1));
+    // Create an AudioRecord for the given channel count, preferring the raw UNPROCESSED
+    // source. Returns null if neither source can be initialized with that many channels.
+    private AudioRecord createAudioRecord(int channels) {
+        int monoBufferSize = AudioRecord.getMinBufferSize(
+                SAMPLE_RATE,
+                AudioFormat.CHANNEL_IN_MONO,
+                AudioFormat.ENCODING_PCM_16BIT) * 2;
+        int recordBufferSize = monoBufferSize * channels;
+
+        Log.d(TAG, "Record buffer size: " + recordBufferSize);
+
+        // Mono and stereo have positional masks; larger arrays are addressed by index
+        AudioFormat.Builder format = new AudioFormat.Builder()
+                .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                .setSampleRate(SAMPLE_RATE);
+        if (channels == 1) {
+            format.setChannelMask(AudioFormat.CHANNEL_IN_MONO);
+        } else if (channels == 2) {
+            format.setChannelMask(AudioFormat.CHANNEL_IN_STEREO);
+        } else {
+            format.setChannelIndexMask((1 << channels) - 1);
+        }
 
-            // Use maximum amplitude for better SNR
-            double amplitude = Short.MAX_VALUE * 0.95 * window;
-            chirpTemplate[i] = (short) (amplitude * Math.sin(phase));
+        // A fresh profile saying UNPROCESSED fell back to MIC on this model saves the retry
+        int[] sources = knownUnprocessedFallback()
+                ? new int[]{MediaRecorder.AudioSource.MIC}
+                : new int[]{MediaRecorder.AudioSource.UNPROCESSED, MediaRecorder.AudioSource.MIC};
+        for (int source : sources) {
+            try {
+                AudioRecord record = new AudioRecord.Builder()
+                        .setAudioSource(source)
+                        .setAudioFormat(format.build())
+                        .setBufferSizeInBytes(recordBufferSize)
+                        .build();
+
+                if (record.getState() == AudioRecord.STATE_INITIALIZED) {
+                    audioSource = source;
+                    unprocessedFallback = source != MediaRecorder.AudioSource.UNPROCESSED;
+                    Log.d(TAG, "Using " + (source == MediaRecorder.AudioSource.UNPROCESSED ? "UNPROCESSED" : "MIC")
+                            + " audio source with " + channels + " channel(s)");
+                    return record;
+                }
+                record.release();
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to initialize audio source " + source + " with " + channels
+                        + " channel(s): " + e.getMessage());
+            }
         }
+        return null;
+    }
+
+    // Generate chirp signal
+    private void generateChirpTemplate() {
+        chirpTemplate = getTemplate(DEFAULT_WAVEFORM);
 
         // Log chirp statistics
         short minVal = Short.MAX_VALUE;
@@ -138,18 +254,231 @@ public class EchoTester {
         }
 
         Log.d(TAG, String.format("Chirp generated: %d samples, %.2f ms, %d-%d Hz, amplitude range: %d to %d",
-                chirpSamples, (float)CHIRP_DURATION_MS, CHIRP_MIN_FREQ, CHIRP_MAX_FREQ, minVal, maxVal));
+                chirpTemplate.length, (float)CHIRP_DURATION_MS, CHIRP_MIN_FREQ, CHIRP_MAX_FREQ, minVal, maxVal));
+    }
+
+    private boolean knownUnprocessedFallback() {
+        if (calibrationDir == null) {
+            return false;
+        }
+        CalibrationProfile profile = CalibrationProfile.load(calibrationDir, Build.MODEL, MediaRecorder.AudioSource.MIC);
+        return profile != null && profile.unprocessedFallback && !profile.isStale(System.currentTimeMillis());
+    }
+
+    // Picks up the saved profile for this device and audio source, if there is a fresh one
+    private void loadCalibration() {
+        if (calibrationDir == null || audioRecord == null) {
+            return;
+        }
+
+        CalibrationProfile profile = CalibrationProfile.load(calibrationDir, Build.MODEL, audioSource);
+        if (profile == null || !profile.isCompatible(SAMPLE_RATE, CANCELLER_TAPS)
+                || profile.isStale(System.currentTimeMillis())) {
+            Log.i(TAG, "No usable calibration for " + Build.MODEL + ", source " + audioSource);
+            return;
+        }
+
+        applyCalibration(profile);
+        Log.i(TAG, "Loaded calibration: " + profile);
+    }
+
+    private void applyCalibration(CalibrationProfile profile) {
+        referenceDelaySamples = profile.latencySamples;
+        directPathCanceller.setCoefficients(profile.directPathResponse);
+        calibration = profile;
+    }
+
+    // True until a calibration that is still fresh has been loaded or measured
+    public boolean needsCalibration() {
+        CalibrationProfile profile = calibration;
+        return profile == null || profile.isStale(System.currentTimeMillis());
+    }
+
+    public CalibrationProfile getCalibration() {
+        return calibration;
+    }
+
+    // Calibrates first if needed; called at the start of every measurement on the executor
+    private void ensureCalibrated(AtomicBoolean run) throws Exception {
+        if (!needsCalibration()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        ChirpSchedule schedule = SweepRunner.plan(
+                Collections.singletonList(CALIBRATION_WAVEFORM), CALIBRATION_CHIRPS, SAMPLE_RATE, this::getTemplate);
+        short[] capture = captureSchedule(schedule, run, percent -> { })[0];
+        if (capture.length < captureSamples(schedule)) {
+            throw new IllegalStateException("Calibration stopped before completion");
+        }
+
+        CalibrationProfile profile = measureCalibration(capture, schedule, directPathCanceller);
+        profile.deviceModel = Build.MODEL;
+        profile.audioSource = audioSource;
+        profile.unprocessedFallback = unprocessedFallback;
+        profile.createdAtMillis = System.currentTimeMillis();
+        applyCalibration(profile);
+
+        if (calibrationDir != null) {
+            try {
+                profile.save(calibrationDir);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not save calibration: " + e.getMessage());
+            }
+        }
+
+        Log.i(TAG, String.format("Calibrated in %.0f ms: %s", (System.nanoTime() - start) / 1e6, profile));
+    }
+
+    // Works out latency, noise floor and direct-path response from a capture of a
+    // calibration schedule. The canceller is retrained from scratch on the capture.
+    static CalibrationProfile measureCalibration(short[] capture, ChirpSchedule schedule, NlmsCanceller canceller)
+            throws InterruptedException, ExecutionException {
+        CalibrationProfile profile = new CalibrationProfile();
+        profile.sampleRate = SAMPLE_RATE;
+
+        short[] reference = schedule.render();
+        int latency = NlmsCanceller.estimateDelay(reference, capture, MAX_LATENCY_MS * SAMPLE_RATE / 1000);
+        profile.latencySamples = latency;
+
+        // Noise floor from the quiet end of every slot
+        int noiseSamples = CALIBRATION_NOISE_MS * SAMPLE_RATE / 1000;
+        double sumSquares = 0;
+        long count = 0;
+        for (int i = 0; i < schedule.size(); i++) {
+            int slotEnd = (i + 1 < schedule.size() ? schedule.getStart(i + 1) : schedule.getTotalSamples()) + latency;
+            for (int j = Math.max(0, slotEnd - noiseSamples); j < Math.min(capture.length, slotEnd); j++) {
+                sumSquares += (double) capture[j] * capture[j];
+                count++;
+            }
+        }
+        profile.noiseFloorRms = count > 0 ? Math.sqrt(sumSquares / count) : 0;
+
+        // Direct-path response, learned over a few passes of the aligned capture
+        canceller.reset();
+        short[] aligned = alignReference(reference, capture.length, latency);
+        for (int pass = 0; pass < CALIBRATION_PASSES; pass++) {
+            canceller.cancel(aligned, capture);
+        }
+        profile.directPathResponse = canceller.getCoefficients();
+
+        // Ringing: how long the direct path keeps arriving above the tail level after the
+        // chirp has ended. Measured on the capture pulse-compressed with the chirp, where the
+        // direct path is a short pulse at the end of the chirp with any ringing trailing it,
+        // and a reflector is a separate pulse after a gap. Unlike the response above, this is
+        // not limited to what the canceller's taps reach.
+        profile.directPathTailMs = measureRingingMs(capture, schedule, latency);
+
+        return profile;
+    }
+
+    // Filtered direct-path pulses of every chirp are averaged, which keeps the ringing
+    // (identical each time) and lowers the noise. The ringing ends at the first block of
+    // RINGING_BLOCK_MS that stays under the tail level.
+    private static double measureRingingMs(short[] capture, ChirpSchedule schedule, int latency)
+            throws InterruptedException, ExecutionException {
+        short[] chirp = schedule.getTemplate(0);
+        short[] compressed = new MatchedFilterBank(Collections.singletonList(chirp)).filterAll(capture, null, 1)[0];
+
+        // From a little before each pulse, to allow for a latency a carrier cycle off, to the
+        // next chirp
+        int before = RINGING_SEARCH_SAMPLES;
+        int after = Integer.MAX_VALUE;
+        for (int i = 0; i + 1 < schedule.size(); i++) {
+            after = Math.min(after, schedule.getStart(i + 1) - schedule.getStart(i) - chirp.length);
+        }
+        after = Math.max(0, Math.min(after, schedule.getTotalSamples() - schedule.getStart(0) - chirp.length));
+
+        double[] average = new double[before + after];
+        int pulses = 0;
+        for (int i = 0; i < schedule.size(); i++) {
+            int pulse = schedule.getStart(i) + latency + chirp.length - 1;
+            if (pulse - before < 0 || pulse + after > compressed.length) continue;
+            for (int t = 0; t < average.length; t++) {
+                average[t] += compressed[pulse - before + t];
+            }
+            pulses++;
+        }
+        if (pulses == 0) {
+            return 0;
+        }
+
+        int peakIndex = 0;
+        for (int t = 1; t < Math.min(average.length, 2 * before + 1); t++) {
+            if (Math.abs(average[t]) > Math.abs(average[peakIndex])) peakIndex = t;
+        }
+        double level = DIRECT_PATH_TAIL_LEVEL * Math.abs(average[peakIndex]);
+
+        int block = (int) Math.round(RINGING_BLOCK_MS * SAMPLE_RATE / 1000);
+        int last = peakIndex;
+        for (int from = peakIndex + 1; from < average.length; from += block) {
+            int lastInBlock = -1;
+            for (int t = from; t < Math.min(average.length, from + block); t++) {
+                if (Math.abs(average[t]) > level) lastInBlock = t;
+            }
+            if (lastInBlock < 0) break;
+            last = lastInBlock;
+        }
+        return (last - peakIndex) * 1000.0 / SAMPLE_RATE;
+    }
+
+    // Energy an echo window needs to count: above the calibrated noise floor when known
+    private double echoThreshold() {
+        return echoThreshold(calibration);
+    }
+
+    // As above, for a given profile (null when uncalibrated). In raw capture units.
+    static double echoThreshold(CalibrationProfile profile) {
+        if (profile == null) {
+            return ECHO_THRESHOLD;
+        }
+        return Math.max(ECHO_THRESHOLD, NOISE_FLOOR_MARGIN * profile.noiseFloorRms * profile.noiseFloorRms);
+    }
+
+    // Echo gate for a run with or without direct-path cancellation
+    private int echoGateMs(boolean cancelled) {
+        return echoGateMs(calibration, cancelled);
+    }
+
+    // As above, for a given profile (null when uncalibrated). Without cancellation the
+    // direct path itself is still in the capture, so the default gate stays and measured
+    // ringing can only lengthen it. Once it is cancelled the gate shrinks, but not below
+    // the measured ringing.
+    static int echoGateMs(CalibrationProfile profile, boolean cancelled) {
+        int ringing = profile == null ? 0 : (int) Math.ceil(profile.directPathTailMs);
+        return Math.max(cancelled ? CANCELLED_ECHO_GATE_MS : DEFAULT_ECHO_GATE_MS, ringing);
+    }
+
+    // Enable or disable direct-path cancellation for single tests and sweeps
+    public void setDirectPathCancellation(boolean enabled) {
+        directPathCancellation = enabled;
+    }
+
+    public NlmsCanceller getDirectPathCanceller() {
+        return directPathCanceller;
+    }
+
+    // Expected delay of the transmit signal in the capture, or -1 if unknown. Each capture
+    // still measures its own delay, only within LATENCY_SEARCH_MS of this one.
+    public void setReferenceDelaySamples(int delaySamples) {
+        referenceDelaySamples = delaySamples;
+    }
+
+    // Chirp for a waveform, generated once and reused for the lifetime of this tester
+    public short[] getTemplate(WaveformConfig config) {
+        return templateCache.computeIfAbsent(config, c -> c.generateChirp(SAMPLE_RATE));
     }
 
     // Start echo detection test
     public void startTest(EchoTestCallback callback) {
-        if (isRunning.get()) {
+        AtomicBoolean run = beginRun();
+        if (run == null) {
             Log.w(TAG, "Test already running");
+            callback.onError(BUSY_MESSAGE);
             return;
         }
 
         this.callback = callback;
-        isRunning.set(true);
 
         executor.execute(() -> {
             try {
@@ -157,20 +486,32 @@ public class EchoTester {
                     throw new IllegalStateException("Audio components not initialized");
                 }
 
+                ensureCalibrated(run);
+
                 Log.i(TAG, "Starting echo detection test");
 
                 // Start recording
                 audioRecord.startRecording();
                 audioTrack.play();
 
-                List<short[]> allRecordings = new ArrayList<>();
+                Deinterleaver capture = new Deinterleaver(captureChannels, SAMPLE_RATE * TEST_DURATION_MS / 1000);
                 List<Long> chirpTimes = new ArrayList<>();
 
+                // Compress the session as it is captured so storage keeps pace with the mic,
+                // one stream per channel so the predictor sees a continuous signal
+                ByteArrayOutputStream[] compressedSession = new ByteArrayOutputStream[captureChannels];
+                PcmCodec.Encoder[] sessionEncoders = new PcmCodec.Encoder[captureChannels];
+                for (int c = 0; c < captureChannels; c++) {
+                    compressedSession[c] = new ByteArrayOutputStream();
+                    sessionEncoders[c] = new PcmCodec.Encoder(compressedSession[c]);
+                }
+                short[] buffer = new short[BUFFER_SIZE * captureChannels];
+
                 long startTime = System.currentTimeMillis();
                 long testEndTime = startTime + TEST_DURATION_MS;
                 long nextChirpTime = startTime;
 
-                while (isRunning.get() && System.currentTimeMillis() < testEndTime) {
+                while (run.get() && System.currentTimeMillis() < testEndTime) {
                     long currentTime = System.currentTimeMillis();
                     int progress = (int) ((currentTime - startTime) * 100 / TEST_DURATION_MS);
                     callback.onProgress(progress);
@@ -188,16 +529,18 @@ public class EchoTester {
                     }
 
                     // Read audio data
-                    short[] buffer = new short[BUFFER_SIZE];
-                    int bytesRead = audioRecord.read(buffer, 0, BUFFER_SIZE);
+                    int bytesRead = audioRecord.read(buffer, 0, buffer.length);
 
                     if (bytesRead > 0) {
-                        short[] recording = new short[bytesRead];
-                        System.arraycopy(buffer, 0, recording, 0, bytesRead);
-                        allRecordings.add(recording);
+                        int framesBefore = capture.getFrameCount();
+                        capture.append(buffer, 0, bytesRead);
+                        int newFrames = capture.getFrameCount() - framesBefore;
+                        for (int c = 0; c < captureChannels; c++) {
+                            sessionEncoders[c].write(capture.buffer(c), framesBefore, newFrames);
+                        }
 
                         // Log signal stats for debugging
-                        logSignalStats(recording);
+                        logSignalStats(buffer, bytesRead);
                     }
 
                     // Small sleep to avoid burning CPU
@@ -213,8 +556,25 @@ public class EchoTester {
                 audioRecord.stop();
                 audioTrack.stop();
 
+                if (!run.get()) {
+                    // Stopped on purpose; the caller already knows and may have moved on
+                    Log.i(TAG, "Echo detection test stopped");
+                    return;
+                }
+
                 // Process results
-                TestResult result = analyzeRecordings(allRecordings, chirpTimes);
+                TestResult result = analyzeRecordings(capture.getChannels(), chirpTimes);
+                result.compressedAudio = new byte[captureChannels][];
+                for (int c = 0; c < captureChannels; c++) {
+                    sessionEncoders[c].close();
+                    result.rawAudioBytes += sessionEncoders[c].getSampleCount() * 2;
+                    result.compressedAudioBytes += sessionEncoders[c].getEncodedBytes();
+                    result.compressedAudio[c] = compressedSession[c].toByteArray();
+                }
+
+                Log.i(TAG, String.format("Session audio: %d bytes raw, %d bytes compressed (%.1f%%)",
+                        result.rawAudioBytes, result.compressedAudioBytes,
+                        result.rawAudioBytes > 0 ? result.compressedAudioBytes * 100.0 / result.rawAudioBytes : 0));
                 callback.onTestComplete(result);
 
                 Log.i(TAG, "Echo detection test completed");
@@ -223,19 +583,256 @@ public class EchoTester {
                 Log.e(TAG, "Error during echo detection test", e);
                 callback.onError("Test failed: " + e.getMessage());
             } finally {
-                isRunning.set(false);
+                endRun(run);
+            }
+        });
+    }
+
+    // Start a parameter sweep: every configuration, interleaved, in one audio session
+    public void startSweep(List<WaveformConfig> configs, int repetitions, SweepRunner.SweepCallback callback) {
+        AtomicBoolean run = beginRun();
+        if (run == null) {
+            Log.w(TAG, "Test already running");
+            callback.onError(BUSY_MESSAGE);
+            return;
+        }
+
+        executor.execute(() -> {
+            try {
+                if (audioRecord == null || audioTrack == null) {
+                    throw new IllegalStateException("Audio components not initialized");
+                }
+
+                ensureCalibrated(run);
+
+                ChirpSchedule schedule = SweepRunner.plan(configs, repetitions, SAMPLE_RATE, this::getTemplate);
+
+                Log.i(TAG, "Starting sweep over " + configs.size() + " configurations");
+
+                short[] capture = captureSchedule(schedule, run, callback::onProgress)[0];
+                if (capture.length < captureSamples(schedule)) {
+                    if (!run.get()) {
+                        // Stopped on purpose; the caller already knows
+                        Log.i(TAG, "Sweep stopped");
+                        return;
+                    }
+                    throw new IllegalStateException("Sweep stopped before completion");
+                }
+
+                short[] reference = schedule.render();
+                int delay = estimateReferenceDelay(reference, capture);
+
+                boolean cancelled = directPathCancellation;
+                if (cancelled) {
+                    capture = cancelDirectPath(reference, capture, delay);
+                }
+                int echoGateMs = echoGateMs(cancelled);
+
+                // Analyze on the schedule's timeline: chirps start where their direct path lands
+                short[] aligned = new short[schedule.getTotalSamples()];
+                System.arraycopy(capture, delay, aligned, 0, Math.max(0, Math.min(aligned.length, capture.length - delay)));
+
+                SweepRunner.SweepResult result = SweepRunner.analyze(aligned, schedule, configs, SAMPLE_RATE,
+                        echoGateMs, echoThreshold());
+                for (TestResult cell : result.cellResults) {
+                    cell.loopLatencyMs = delay * 1000.0 / SAMPLE_RATE;
+                }
+                callback.onSweepComplete(result);
+
+                Log.i(TAG, "Sweep completed");
+
+            } catch (Exception e) {
+                Log.e(TAG, "Error during sweep", e);
+                callback.onError("Sweep failed: " + e.getMessage());
+            } finally {
+                endRun(run);
             }
         });
     }
 
-    // Stop the current test
+    // Runs the frequency-division mode: DEFAULT_WAVEFORM's band is split into bandCount
+    // sub-bands whose chirps play at the same time, captured in one session and
+    // separated by a matched-filter bank
+    public void startMultiBand(int bandCount, int repetitions, MultiBandRunner.MultiBandCallback callback) {
+        AtomicBoolean run = beginRun();
+        if (run == null) {
+            Log.w(TAG, "Test already running");
+            callback.onError(BUSY_MESSAGE);
+            return;
+        }
+
+        executor.execute(() -> {
+            try {
+                if (audioRecord == null || audioTrack == null) {
+                    throw new IllegalStateException("Audio components not initialized");
+                }
+
+                ensureCalibrated(run);
+
+                List<WaveformConfig> bands = MultiBandRunner.splitBand(DEFAULT_WAVEFORM, bandCount);
+                ChirpSchedule schedule = MultiBandRunner.plan(bands, repetitions, SAMPLE_RATE, this::getTemplate);
+
+                Log.i(TAG, "Starting multi-band run over " + bands.size() + " sub-bands");
+
+                short[] capture = captureSchedule(schedule, run, callback::onProgress)[0];
+                if (capture.length < captureSamples(schedule)) {
+                    if (!run.get()) {
+                        // Stopped on purpose; the caller already knows
+                        Log.i(TAG, "Multi-band run stopped");
+                        return;
+                    }
+                    throw new IllegalStateException("Multi-band run stopped before completion");
+                }
+
+                int delay = estimateReferenceDelay(schedule.render(), capture);
+
+                MultiBandRunner.MultiBandResult result = MultiBandRunner.analyze(
+                        capture, schedule, bands, delay, SAMPLE_RATE, echoGateMs(false), echoThreshold(), analysisPool);
+                for (TestResult band : result.bandResults) {
+                    band.loopLatencyMs = delay * 1000.0 / SAMPLE_RATE;
+                }
+                callback.onMultiBandComplete(result);
+
+                Log.i(TAG, String.format("Multi-band run completed: %.1f measurements/s", result.measurementsPerSecond));
+
+            } catch (Exception e) {
+                Log.e(TAG, "Error during multi-band run", e);
+                callback.onError("Multi-band run failed: " + e.getMessage());
+            } finally {
+                endRun(run);
+            }
+        });
+    }
+
+    // Where the transmit signal lands in this capture. Latency moves a little between
+    // sessions, so a calibrated value only narrows the search to a window around it; the
+    // capture itself always decides.
+    private int estimateReferenceDelay(short[] reference, short[] capture) {
+        int maxDelay = MAX_LATENCY_MS * SAMPLE_RATE / 1000;
+        int expected = referenceDelaySamples;
+        if (expected < 0) {
+            return NlmsCanceller.estimateDelay(reference, capture, maxDelay);
+        }
+        int window = LATENCY_SEARCH_MS * SAMPLE_RATE / 1000;
+        int low = Math.max(0, Math.min(maxDelay, expected - window));
+        int high = Math.min(maxDelay, expected + window);
+        return NlmsCanceller.estimateDelay(reference, capture, low, Math.max(low, high));
+    }
+
+    // Subtracts the learned speaker-to-mic coupling from a capture. The reference is shifted
+    // so the direct path, delay samples in, lands just inside the filter's taps.
+    private short[] cancelDirectPath(short[] reference, short[] capture, int delay) {
+        short[] aligned = alignReference(reference, capture.length, delay);
+
+        long start = System.nanoTime();
+        short[] cleaned = directPathCanceller.cancel(aligned, capture);
+        Log.d(TAG, String.format("Direct path cancelled: delay=%d samples, %.1f ms for %d samples",
+                delay, (System.nanoTime() - start) / 1e6, capture.length));
+        return cleaned;
+    }
+
+    // As above for every captured channel. Channel 0 goes through the shared canceller; the
+    // other mics have their own coupling, so each gets a copy that starts from channel 0's
+    // response and adapts from there.
+    private short[][] cancelDirectPath(short[] reference, short[][] channels, int delay) {
+        short[][] cleaned = new short[channels.length][];
+        cleaned[0] = cancelDirectPath(reference, channels[0], delay);
+        for (int c = 1; c < channels.length; c++) {
+            NlmsCanceller canceller = new NlmsCanceller(CANCELLER_TAPS, CANCELLER_STEP);
+            canceller.setCoefficients(directPathCanceller.getCoefficients());
+            cleaned[c] = canceller.cancel(alignReference(reference, channels[c].length, delay), channels[c]);
+        }
+        return cleaned;
+    }
+
+    // Reference shifted to land the direct path CANCELLER_LEAD taps into the filter
+    private static short[] alignReference(short[] reference, int length, int delay) {
+        int shift = Math.max(0, delay - CANCELLER_LEAD);
+        short[] aligned = new short[length];
+        System.arraycopy(reference, 0, aligned, shift, Math.max(0, Math.min(reference.length, length - shift)));
+        return aligned;
+    }
+
+    // Frames captureSchedule() records for a schedule: the schedule itself plus the longest
+    // output-to-input latency, so the last chirps and their echoes arrive before it stops
+    private static int captureSamples(ChirpSchedule schedule) {
+        return schedule.getTotalSamples() + MAX_LATENCY_MS * SAMPLE_RATE / 1000;
+    }
+
+    // Plays a schedule while recording, with both streams paced by the audio hardware
+    // rather than by sleeps. Returns the capture per channel, aligned sample-for-sample with
+    // the schedule up to the device's output-to-input latency and captureSamples() long;
+    // silence is played after the schedule ends. Stops early once run is stopped.
+    private short[][] captureSchedule(ChirpSchedule schedule, AtomicBoolean run, ProgressListener progress) {
+        int scheduledSamples = schedule.getTotalSamples();
+        int totalSamples = captureSamples(schedule);
+        Deinterleaver capture = new Deinterleaver(captureChannels, totalSamples);
+        short[] playChunk = new short[STREAM_CHUNK];
+        short[] recordChunk = new short[STREAM_CHUNK * captureChannels];
+        int written = 0;
+        int lastProgress = -1;
+
+        audioRecord.startRecording();
+        audioTrack.play();
+
+        try {
+            while (run.get() && capture.getFrameCount() < totalSamples) {
+                if (written < totalSamples) {
+                    int count = Math.min(STREAM_CHUNK, totalSamples - written);
+                    int scheduled = Math.max(0, Math.min(count, scheduledSamples - written));
+                    if (scheduled > 0) {
+                        schedule.render(playChunk, written, scheduled);
+                    }
+                    Arrays.fill(playChunk, scheduled, count, (short) 0);
+                    int result = audioTrack.write(playChunk, 0, count);
+                    if (result < 0) {
+                        throw new IllegalStateException("AudioTrack write failed: " + result);
+                    }
+                    written += result;
+                }
+
+                int frames = Math.min(STREAM_CHUNK, totalSamples - capture.getFrameCount());
+                int result = audioRecord.read(recordChunk, 0, frames * captureChannels);
+                if (result < 0) {
+                    throw new IllegalStateException("AudioRecord read failed: " + result);
+                }
+                capture.append(recordChunk, 0, result);
+
+                int percent = (int) ((long) capture.getFrameCount() * 100 / totalSamples);
+                if (percent != lastProgress) {
+                    progress.onProgress(percent);
+                    lastProgress = percent;
+                }
+            }
+        } finally {
+            audioRecord.stop();
+            audioTrack.stop();
+        }
+
+        return capture.getChannels();
+    }
+
+    // Stop the current test. The tester is free for the next run straight away; that run
+    // queues behind the stopped one on the executor.
     public void stopTest() {
-        if (isRunning.get()) {
+        AtomicBoolean run = activeRun.getAndSet(null);
+        if (run != null) {
             Log.i(TAG, "Stopping echo detection test");
-            isRunning.set(false);
+            run.set(false);
         }
     }
 
+    // Claims the tester for a new run; null if another run holds it
+    private AtomicBoolean beginRun() {
+        AtomicBoolean run = new AtomicBoolean(true);
+        return activeRun.compareAndSet(null, run) ? run : null;
+    }
+
+    // Frees the tester, unless the run was already stopped and another has taken over
+    private void endRun(AtomicBoolean run) {
+        activeRun.compareAndSet(run, null);
+    }
+
     // Release resources
     public void release() {
         Log.i(TAG, "Releasing resources");
@@ -255,54 +852,144 @@ public class EchoTester {
             executor.shutdown();
             executor = null;
         }
+
+        if (analysisPool != null) {
+            analysisPool.shutdown();
+            analysisPool = null;
+        }
     }
 
     // Log signal statistics
-    private void logSignalStats(short[] signal) {
-        if (signal == null || signal.length == 0) return;
+    private void logSignalStats(short[] signal, int length) {
+        if (signal == null || length == 0) return;
 
         short min = Short.MAX_VALUE;
         short max = Short.MIN_VALUE;
         double sum = 0;
         double sumSquared = 0;
 
-        for (short s : signal) {
+        for (int i = 0; i < length; i++) {
+            short s = signal[i];
             min = (short) Math.min(min, s);
             max = (short) Math.max(max, s);
             sum += s;
             sumSquared += (double) s * s;
         }
 
-        double mean = sum / signal.length;
-        double rms = Math.sqrt(sumSquared / signal.length);
+        double mean = sum / length;
+        double rms = Math.sqrt(sumSquared / length);
 
         Log.d(TAG, String.format("Signal stats: min=%d, max=%d, mean=%.2f, rms=%.2f, range=%d",
                 min, max, mean, rms, max - min));
     }
 
-    // Analyze recorded data
-    private TestResult analyzeRecordings(List<short[]> recordings, List<Long> chirpTimes) {
+    // Analyze recorded data, one array per captured channel
+    private TestResult analyzeRecordings(short[][] channels, List<Long> chirpTimes) throws Exception {
         TestResult result = new TestResult();
 
-        if (recordings.isEmpty() || chirpTimes.isEmpty()) {
+        if (channels[0].length == 0 || chirpTimes.isEmpty()) {
             Log.w(TAG, "No recordings or chirps to analyze");
             return result;
         }
 
-        Log.i(TAG, "Analyzing " + recordings.size() + " recordings with " + chirpTimes.size() + " chirps");
+        Log.i(TAG, "Analyzing " + channels.length + " channel(s) of " + channels[0].length
+                + " samples with " + chirpTimes.size() + " chirps");
 
-        // Concatenate all recordings
-        int totalSamples = 0;
-        for (short[] recording : recordings) {
-            totalSamples += recording.length;
+        // Convert wall-clock chirp times to sample offsets
+        int[] chirpStarts = new int[chirpTimes.size()];
+        for (int i = 0; i < chirpStarts.length; i++) {
+            long sampleOffset = (chirpTimes.get(i) - chirpTimes.get(0)) * SAMPLE_RATE / 1000;
+            chirpStarts[i] = (int) Math.max(0, sampleOffset);
         }
 
-        short[] allSamples = new short[totalSamples];
-        int position = 0;
+        // How far the chirps actually land in the capture behind where they were scheduled:
+        // output-to-input latency plus any scheduling slip
+        short[] reference = renderChirps(chirpStarts, channels[0].length);
+        int delay = estimateReferenceDelay(reference, channels[0]);
+        double loopLatencyMs = delay * 1000.0 / SAMPLE_RATE;
+
+        boolean cancelled = directPathCancellation;
+        if (cancelled) {
+            channels = cancelDirectPath(reference, channels, delay);
+        }
+        int echoGateMs = echoGateMs(cancelled);
 
-        for (short[] recording : recordings) {
-            System.arraycopy(recording, 0, allSamples, position, recording.length);
-            position += recording.length;
+        // Gate and measure echoes from where each chirp actually arrives, as sweeps do
+        int[] arrivals = new int[chirpStarts.length];
+        for (int i = 0; i < arrivals.length; i++) {
+            arrivals[i] = chirpStarts[i] + delay;
+        }
+
+        int echoGateSamples = echoGateMs * SAMPLE_RATE / 1000;
+        double echoThreshold = echoThreshold();
+
+        if (channels.length == 1) {
+            result = analyzeSamples(channels[0], arrivals, chirpTemplate.length, echoGateSamples, echoThreshold);
+            result.loopLatencyMs = loopLatencyMs;
+            return result;
+        }
+
+        // Channels in parallel; channel 0 stays the headline result
+        TestResult[] channelResults = MultiChannelAnalyzer.analyzeChannels(
+                channels, arrivals, chirpTemplate.length, echoGateSamples, echoThreshold, analysisPool);
+        result = channelResults[0];
+        result.loopLatencyMs = loopLatencyMs;
+        result.channelResults = channelResults;
+        result.channelDelaysMs = MultiChannelAnalyzer.channelDelaysMs(channels, arrivals, chirpTemplate.length,
+                echoGateSamples, MultiChannelAnalyzer.maxLagSamples(MIC_SPACING_M, SAMPLE_RATE), SAMPLE_RATE);
+        result.echoBearingDegrees = MultiChannelAnalyzer.bearingDegrees(result.channelDelaysMs[1], MIC_SPACING_M);
+
+        Log.i(TAG, String.format("Inter-mic delay=%.3f ms, bearing=%.1f deg",
+                result.channelDelaysMs[1], result.echoBearingDegrees));
+
+        return result;
+    }
+
+    // What the speaker played during a single test, on the capture's timeline
+    private short[] renderChirps(int[] chirpStarts, int length) {
+        short[] reference = new short[length];
+        for (int start : chirpStarts) {
+            int count = Math.min(chirpTemplate.length, length - start);
+            if (count > 0) {
+                System.arraycopy(chirpTemplate, 0, reference, start, count);
+            }
+        }
+        return reference;
+    }
+
+    // Analyze a contiguous capture given the sample offset at which each chirp was emitted
+    static TestResult analyzeSamples(short[] allSamples, int[] chirpStarts, int chirpLength) {
+        return analyzeSamples(allSamples, chirpStarts, chirpLength, DEFAULT_ECHO_GATE_MS * SAMPLE_RATE / 1000);
+    }
+
+    // As above, with the echo window opening echoGateSamples after the end of each chirp
+    static TestResult analyzeSamples(short[] allSamples, int[] chirpStarts, int chirpLength, int echoGateSamples) {
+        return analyzeSamples(allSamples, chirpStarts, chirpLength, echoGateSamples, ECHO_THRESHOLD);
+    }
+
+    // As above, with the minimum echo energy for a detection
+    static TestResult analyzeSamples(short[] allSamples, int[] chirpStarts, int chirpLength,
+                                     int echoGateSamples, double echoThreshold) {
+        int[] noiseStarts = new int[chirpStarts.length];
+        for (int i = 0; i < chirpStarts.length; i++) {
+            noiseStarts[i] = Math.max(0, chirpStarts[i] - NOISE_WINDOW_SAMPLES);
+        }
+        return analyzeSamples(allSamples, chirpStarts, chirpLength, echoGateSamples, echoThreshold,
+                ECHO_WINDOW_MS * SAMPLE_RATE / 1000, noiseStarts, chirpStarts);
+    }
+
+    // As above, with the echo window closing echoWindowSamples after the end of each chirp
+    // (e.g. at the end of its slot) and chirp i's noise measured over
+    // [noiseStarts[i], noiseEnds[i]). A chirp with an empty noise window still counts for
+    // echoes; with no noise windows at all there is no SNR and nothing is detected.
+    static TestResult analyzeSamples(short[] allSamples, int[] chirpStarts, int chirpLength,
+                                     int echoGateSamples, double echoThreshold, int echoWindowSamples,
+                                     int[] noiseStarts, int[] noiseEnds) {
+        TestResult result = new TestResult();
+
+        if (allSamples.length == 0 || chirpStarts.length == 0) {
+            Log.w(TAG, "No samples or chirps to analyze");
+            return result;
         }
 
         // Calculate overall signal statistics
@@ -331,50 +1018,47 @@ public class EchoTester {
         List<Double> noiseEnergies = new ArrayList<>();
         List<Double> echoDelays = new ArrayList<>();
 
-        for (Long chirpTime : chirpTimes) {
+        for (int chirpIndex = 0; chirpIndex < chirpStarts.length; chirpIndex++) {
             // Determine sample indices for this chirp
-            long sampleOffset = (chirpTime - chirpTimes.get(0)) * SAMPLE_RATE / 1000;
-            int chirpStart = (int) Math.max(0, sampleOffset);
+            int chirpStart = chirpStarts[chirpIndex];
 
             // Look for the emitted chirp and subsequent echoes
-            if (chirpStart + chirpTemplate.length < allSamples.length) {
+            if (chirpStart + chirpLength < allSamples.length) {
 
                 // Calculate energy in expected echo region
-                // (Look 5-50ms after chirp for echoes based on distance)
-                int echoStartOffset = (int) (5 * SAMPLE_RATE / 1000); // 5ms
-                int echoEndOffset = (int) (50 * SAMPLE_RATE / 1000); // 50ms
-
-                int echoStart = chirpStart + chirpTemplate.length + echoStartOffset;
-                int echoEnd = Math.min(allSamples.length, chirpStart + chirpTemplate.length + echoEndOffset);
+                // (Look from the gate to the end of the echo window for echoes based on distance)
+                int echoStart = chirpStart + chirpLength + echoGateSamples;
+                int echoEnd = Math.min(allSamples.length, chirpStart + chirpLength + echoWindowSamples);
 
                 // Calculate background noise level
-                // (Use samples before the chirp)
-                int noiseStart = Math.max(0, chirpStart - 1000);
-                int noiseEnd = chirpStart;
+                int noiseStart = Math.max(0, noiseStarts[chirpIndex]);
+                int noiseEnd = Math.min(allSamples.length, noiseEnds[chirpIndex]);
+                double noiseEnergy = 0;
+                if (noiseEnd > noiseStart) {
+                    noiseEnergy = calculateEnergy(allSamples, noiseStart, noiseEnd);
+                    noiseEnergies.add(noiseEnergy);
+                }
 
-                // Process if we have valid ranges
-                if (echoEnd > echoStart && noiseEnd > noiseStart) {
+                // Process if we have a valid range
+                if (echoEnd > echoStart) {
                     double echoEnergy = calculateEnergy(allSamples, echoStart, echoEnd);
-                    double noiseEnergy = calculateEnergy(allSamples, noiseStart, noiseEnd);
-
                     echoEnergies.add(echoEnergy);
-                    noiseEnergies.add(noiseEnergy);
 
                     // Try to detect peak in echo region
                     int peakIndex = findPeakIndex(allSamples, echoStart, echoEnd);
                     if (peakIndex > 0) {
-                        double delayMs = (peakIndex - chirpStart - chirpTemplate.length) * 1000.0 / SAMPLE_RATE;
+                        double delayMs = (peakIndex - chirpStart - chirpLength) * 1000.0 / SAMPLE_RATE;
                         echoDelays.add(delayMs);
 
                         Log.d(TAG, String.format("Chirp #%d: Echo energy=%.2f, noise=%.2f, delay=%.2fms",
-                                chirpTimes.indexOf(chirpTime), echoEnergy, noiseEnergy, delayMs));
+                                chirpIndex, echoEnergy, noiseEnergy, delayMs));
                     }
                 }
             }
         }
 
         // Calculate final results
-        if (!echoEnergies.isEmpty() && !noiseEnergies.isEmpty()) {
+        if (!echoEnergies.isEmpty()) {
             // Calculate average echo energy
             double totalEchoEnergy = 0;
             for (Double energy : echoEnergies) {
@@ -387,7 +1071,7 @@ public class EchoTester {
             for (Double energy : noiseEnergies) {
                 totalNoiseEnergy += energy;
             }
-            double avgNoiseEnergy = totalNoiseEnergy / noiseEnergies.size();
+            double avgNoiseEnergy = noiseEnergies.isEmpty() ? 0 : totalNoiseEnergy / noiseEnergies.size();
 
             // Calculate SNR
             double snr = avgNoiseEnergy > 0 ? 10 * Math.log10(avgEchoEnergy / avgNoiseEnergy) : 0;
@@ -410,7 +1094,7 @@ public class EchoTester {
             result.echoCount = echoDelays.size();
 
             // Determine if echoes were detected
-            result.echoDetected = avgEchoEnergy > ECHO_THRESHOLD && snr > SIGNAL_NOISE_RATIO_THRESHOLD;
+            result.echoDetected = avgEchoEnergy > echoThreshold && snr > SIGNAL_NOISE_RATIO_THRESHOLD;
 
             // Set signal quality description
             if (result.echoDetected) {
@@ -422,7 +1106,7 @@ public class EchoTester {
                     result.signalQuality = "Fair";
                 }
             } else {
-                if (avgEchoEnergy > ECHO_THRESHOLD / 2) {
+                if (avgEchoEnergy > echoThreshold / 2) {
                     result.signalQuality = "Poor";
                 } else {
                     result.signalQuality = "Very Poor";
@@ -437,7 +1121,7 @@ public class EchoTester {
     }
 
     // Calculate energy of signal in a range
-    private double calculateEnergy(short[] signal, int start, int end) {
+    private static double calculateEnergy(short[] signal, int start, int end) {
         double energy = 0;
         for (int i = start; i < end; i++) {
             energy += signal[i] * signal[i];
@@ -446,7 +1130,7 @@ public class EchoTester {
     }
 
     // Find the index of the peak in a range
-    private int findPeakIndex(short[] signal, int start, int end) {
+    private static int findPeakIndex(short[] signal, int start, int end) {
         int peakIndex = -1;
         short peakValue = 0;
 
@@ -460,6 +1144,11 @@ public class EchoTester {
         return peakIndex;
     }
 
+    // Receives capture progress from captureSchedule()
+    private interface ProgressListener {
+        void onProgress(int percentComplete);
+    }
+
     // Echo test callback interface
     public interface EchoTestCallback {
         void onProgress(int percentComplete);
@@ -480,5 +1169,20 @@ public class EchoTester {
         public short maxValue = 0;
         public double meanValue = 0;
         public double rmsValue = 0;
+
+        // Session audio, losslessly compressed with PcmCodec, one stream per channel. Held in
+        // memory only; saving or uploading it is up to the caller.
+        public long rawAudioBytes = 0;
+        public long compressedAudioBytes = 0;
+        public byte[][] compressedAudio;
+
+        // Multi-channel captures only: per-channel results, each channel's echo delay
+        // relative to channel 0, and the bearing that implies for the first mic pair
+        public TestResult[] channelResults;
+        public double[] channelDelaysMs;
+        public double echoBearingDegrees = Double.NaN;
+
+        // Delay of the chirps in the capture relative to when they were sent, NaN if unknown
+        public double loopLatencyMs = Double.NaN;
     }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Process-scoped owner of the EchoTester.
+//
+// Building AudioRecord/AudioTrack and the chirp templates is slow, so it happens once, off
+// the main thread, the first time someone asks for the tester. The instance then lives as
+// long as the process, across activity recreation and leaving and re-entering the screen;
+// recording and playback only run during a measurement, so holding it idle keeps nothing
+// busy. A failed initialization is not cached, so the next acquire() tries again.
+public final class EchoTesterHolder {
+    private static final String TAG = "EchoTesterHolder";
+
+    // Capture from both mics where available for bearing; EchoTester falls back to mono
+    private static final int CAPTURE_CHANNELS = 2;
+
+    // Calibration profiles, under the app's private files
+    private static final String CALIBRATION_DIR = "calibration";
+
+    private static CompletableFuture<EchoTester> testerFuture;
+    private static ExecutorService initExecutor;
+
+    private EchoTesterHolder() {
+    }
+
+    // Returns a future that completes with the shared tester, starting initialization on a
+    // background thread if nobody has asked for it yet
+    public static synchronized CompletableFuture<EchoTester> acquire(Context context) {
+        File calibrationDir = new File(context.getApplicationContext().getFilesDir(), CALIBRATION_DIR);
+        if (testerFuture != null && testerFuture.isCompletedExceptionally()) {
+            Log.w(TAG, "Retrying EchoTester initialization after an earlier failure");
+            testerFuture = null;
+        }
+        if (testerFuture == null) {
+            if (initExecutor == null) {
+                initExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "EchoTesterInit");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+
+            testerFuture = CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                EchoTester tester = new EchoTester(CAPTURE_CHANNELS, calibrationDir);
+                if (!tester.isInitialized()) {
+                    // e.g. the mic is held by another app; fail so a later acquire() retries
+                    tester.release();
+                    throw new IllegalStateException("Audio devices unavailable");
+                }
+                Log.i(TAG, String.format("EchoTester initialized in %.1f ms, %s", (System.nanoTime() - start) / 1e6,
+                        tester.needsCalibration() ? "calibration due" : "calibration loaded"));
+                return tester;
+            }, initExecutor);
+        }
+        return testerFuture;
+    }
+
+    // True once the shared tester has finished initializing successfully
+    public static synchronized boolean isReady() {
+        return testerFuture != null && testerFuture.isDone() && !testerFuture.isCompletedExceptionally();
+    }
+}
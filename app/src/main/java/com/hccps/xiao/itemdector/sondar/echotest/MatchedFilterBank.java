@@ -0,0 +1,151 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Bank of matched filters, one per chirp template, run by FFT overlap-save.
+//
+// Every block of the input is transformed once and multiplied by each filter's spectrum, so
+// K filters cost one forward and K inverse FFTs per block. Blocks are independent, so the
+// input is split into contiguous runs of blocks that are filtered in parallel.
+//
+// Each filter is causal: a received copy of its template starting at sample s compresses to
+// a pulse peaking at s + length - 1, i.e. where the chirp ends, as in the unfiltered analysis.
+// Outputs are scaled so that pulse peaks at the template's own peak amplitude.
+public final class MatchedFilterBank {
+    private final int filterCount;
+    private final int maxLength;
+    private final int fftSize;
+    private final int hop;
+    private final Fft fft;
+
+    // Spectrum of each time-reversed, scaled template
+    private final double[][] filterRe;
+    private final double[][] filterIm;
+
+    // Output power per unit of white input power, i.e. the sum of squared taps
+    private final double[] noiseGain;
+
+    public MatchedFilterBank(List<short[]> templates) {
+        if (templates.isEmpty()) {
+            throw new IllegalArgumentException("Filter bank needs at least one template");
+        }
+        filterCount = templates.size();
+
+        int longest = 0;
+        for (short[] template : templates) {
+            longest = Math.max(longest, template.length);
+        }
+        maxLength = longest;
+        fftSize = Fft.sizeFor(4 * maxLength);
+        hop = fftSize - maxLength + 1;
+        fft = new Fft(fftSize);
+
+        filterRe = new double[filterCount][];
+        filterIm = new double[filterCount][];
+        noiseGain = new double[filterCount];
+        for (int k = 0; k < filterCount; k++) {
+            short[] template = templates.get(k);
+            double energy = 0;
+            int peak = 0;
+            for (short s : template) {
+                energy += (double) s * s;
+                peak = Math.max(peak, Math.abs(s));
+            }
+            double scale = energy > 0 ? peak / energy : 0;
+            noiseGain[k] = scale * scale * energy;
+
+            double[] re = new double[fftSize];
+            double[] im = new double[fftSize];
+            for (int i = 0; i < template.length; i++) {
+                re[i] = template[template.length - 1 - i] * scale;
+            }
+            fft.forward(re, im);
+            filterRe[k] = re;
+            filterIm[k] = im;
+        }
+    }
+
+    public int getFilterCount() {
+        return filterCount;
+    }
+
+    // How much a filter scales the power of broadband noise. A 20 ms chirp's filter passes
+    // about -26 dB of it, so energies measured on the raw capture (noise floors, detection
+    // thresholds) need scaling by this before they apply to the filter's output.
+    public double getNoiseGain(int filter) {
+        return noiseGain[filter];
+    }
+
+    // Filters the input through every filter. With a pool, the blocks are split into up to
+    // parallelism tasks; size that to the pool's threads.
+    public short[][] filterAll(short[] input, ExecutorService pool, int parallelism)
+            throws InterruptedException, ExecutionException {
+        short[][] outputs = new short[filterCount][input.length];
+        int blocks = (input.length + hop - 1) / hop;
+
+        int tasks = pool == null ? 1 : Math.min(blocks, parallelism);
+        if (tasks <= 1) {
+            filterBlocks(input, 0, blocks, outputs);
+            return outputs;
+        }
+
+        List<Callable<Void>> work = new ArrayList<>();
+        for (int t = 0; t < tasks; t++) {
+            int from = (int) ((long) blocks * t / tasks);
+            int to = (int) ((long) blocks * (t + 1) / tasks);
+            work.add(() -> {
+                filterBlocks(input, from, to, outputs);
+                return null;
+            });
+        }
+        for (Future<Void> future : pool.invokeAll(work)) {
+            future.get();
+        }
+        return outputs;
+    }
+
+    // Overlap-save over blocks [from, to); each block's output range is disjoint, so
+    // several of these can run on the same outputs at once
+    private void filterBlocks(short[] input, int from, int to, short[][] outputs) {
+        double[] xRe = new double[fftSize];
+        double[] xIm = new double[fftSize];
+        double[] re = new double[fftSize];
+        double[] im = new double[fftSize];
+
+        for (int block = from; block < to; block++) {
+            int start = block * hop;
+
+            // Frame = the maxLength - 1 samples of history, then hop new samples
+            int history = start - (maxLength - 1);
+            for (int i = 0; i < fftSize; i++) {
+                int index = history + i;
+                xRe[i] = index >= 0 && index < input.length ? input[index] : 0;
+            }
+            Arrays.fill(xIm, 0);
+            fft.forward(xRe, xIm);
+
+            int count = Math.min(hop, input.length - start);
+            for (int k = 0; k < filterCount; k++) {
+                double[] hRe = filterRe[k];
+                double[] hIm = filterIm[k];
+                for (int f = 0; f < fftSize; f++) {
+                    re[f] = xRe[f] * hRe[f] - xIm[f] * hIm[f];
+                    im[f] = xRe[f] * hIm[f] + xIm[f] * hRe[f];
+                }
+                fft.inverse(re, im);
+
+                short[] out = outputs[k];
+                for (int i = 0; i < count; i++) {
+                    double value = re[maxLength - 1 + i];
+                    out[start + i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+// Frequency-division mode: the chirp band is split into K sub-bands that are played at the
+// same time, each chirp offset by a fraction of the chirp length so their direct-path pulses
+// can still be told apart.
+//
+// Each sub-band keeps the base waveform's period, so its own echoes never collide with its
+// next chirp, but K chirps go out every period and the measurement rate is K times the
+// single-band one. On the receive side a MatchedFilterBank separates the sub-bands and each
+// filtered channel goes through the usual echo analysis. Whatever one sub-band's filter
+// still picks up from the others is measured at the direct-path arrivals and reported as
+// crosstalk.
+public final class MultiBandRunner {
+    private static final String TAG = "MultiBandRunner";
+
+    // Silence before the first chirp, gives the devices time to settle
+    private static final int LEAD_IN_MS = 100;
+
+    // Fraction of each sub-band left empty on either side to keep neighbours apart
+    private static final double GUARD_FRACTION = 0.1;
+
+    // Half-width of the window around each direct-path pulse used to measure crosstalk
+    private static final double CROSSTALK_WINDOW_MS = 2;
+
+    private MultiBandRunner() {
+    }
+
+    // Splits a waveform's band into equal sub-bands with the same duration and listen window
+    public static List<WaveformConfig> splitBand(WaveformConfig base, int bandCount) {
+        if (bandCount <= 0) {
+            throw new IllegalArgumentException("Band count must be positive: " + bandCount);
+        }
+
+        double width = (double) (base.maxFreq - base.minFreq) / bandCount;
+        double guard = width * GUARD_FRACTION;
+        List<WaveformConfig> bands = new ArrayList<>();
+        for (int k = 0; k < bandCount; k++) {
+            int low = (int) Math.round(base.minFreq + k * width + guard);
+            int high = (int) Math.round(base.minFreq + (k + 1) * width - guard);
+            bands.add(new WaveformConfig(low, high, base.durationMs, base.listenMs));
+        }
+        return bands;
+    }
+
+    // Builds the overlapping schedule. Each chirp is tagged with its sub-band index.
+    public static ChirpSchedule plan(List<WaveformConfig> bands, int repetitions, int sampleRate,
+                                     Function<WaveformConfig, short[]> templateSource) {
+        if (bands.isEmpty() || repetitions <= 0) {
+            throw new IllegalArgumentException("Multi-band run needs at least one band and repetition");
+        }
+
+        // All K sub-bands are on air together, so each is played at 1/K of full scale to keep
+        // their sum from clipping when rendered
+        List<short[]> templates = new ArrayList<>();
+        for (WaveformConfig band : bands) {
+            short[] template = templateSource.apply(band);
+            short[] scaled = new short[template.length];
+            for (int i = 0; i < template.length; i++) {
+                scaled[i] = (short) Math.round((double) template[i] / bands.size());
+            }
+            templates.add(scaled);
+        }
+
+        // Sub-band k starts k / K of a chirp after sub-band 0, so all K overlap in time
+        int period = bands.get(0).slotSamples(sampleRate);
+        int stagger = bands.get(0).chirpSamples(sampleRate) / bands.size();
+        int leadIn = LEAD_IN_MS * sampleRate / 1000;
+
+        ChirpSchedule schedule = new ChirpSchedule();
+        for (int rep = 0; rep < repetitions; rep++) {
+            for (int k = 0; k < bands.size(); k++) {
+                schedule.add(leadIn + rep * period + k * stagger, templates.get(k), k);
+            }
+        }
+        schedule.setTotalSamples(leadIn + repetitions * period);
+
+        Log.d(TAG, String.format("Multi-band planned: %d bands x %d reps = %d chirps, %.1f ms apart within a period",
+                bands.size(), repetitions, schedule.size(), stagger * 1000.0 / sampleRate));
+
+        return schedule;
+    }
+
+    // Separates the sub-bands of a capture and analyzes each one. delaySamples is where the
+    // direct path of a chirp lands in the capture relative to its scheduled start; the
+    // capture may run past the end of the schedule to hold the last chirps' echoes.
+    public static MultiBandResult analyze(short[] capture, ChirpSchedule schedule, List<WaveformConfig> bands,
+                                          int delaySamples, int sampleRate, ExecutorService pool)
+            throws InterruptedException, ExecutionException {
+        return analyze(capture, schedule, bands, delaySamples, sampleRate,
+                EchoTester.DEFAULT_ECHO_GATE_MS, EchoTester.ECHO_THRESHOLD, pool);
+    }
+
+    // As above, with the echo gate and detection threshold to use in every sub-band. The
+    // threshold is in the raw capture's energy units, as for single-band analysis; it is
+    // scaled by each filter's noise gain so it keeps the same margin over the noise floor.
+    public static MultiBandResult analyze(short[] capture, ChirpSchedule schedule, List<WaveformConfig> bands,
+                                          int delaySamples, int sampleRate, int echoGateMs, double echoThreshold,
+                                          ExecutorService pool)
+            throws InterruptedException, ExecutionException {
+        List<short[]> templates = new ArrayList<>();
+        for (int k = 0; k < bands.size(); k++) {
+            templates.add(schedule.getTemplate(firstIndexForTag(schedule, k)));
+        }
+
+        long start = System.nanoTime();
+        // Same parallelism as the per-band analysis below
+        MatchedFilterBank bank = new MatchedFilterBank(templates);
+        short[][] filtered = bank.filterAll(capture, pool, bands.size());
+        Log.d(TAG, String.format("Filter bank: %d bands over %d samples in %.1f ms",
+                bands.size(), capture.length, (System.nanoTime() - start) / 1e6));
+
+        MultiBandResult result = new MultiBandResult(bands);
+        result.durationMs = schedule.getTotalSamples() * 1000.0 / sampleRate;
+        result.measurementsPerSecond = schedule.size() * 1000.0 / result.durationMs;
+
+        // Chirp starts moved to where they actually arrive
+        int[][] starts = new int[bands.size()][];
+        for (int k = 0; k < bands.size(); k++) {
+            starts[k] = schedule.startsForTag(k);
+            for (int i = 0; i < starts[k].length; i++) {
+                starts[k][i] += delaySamples;
+            }
+        }
+
+        int echoGateSamples = echoGateMs * sampleRate / 1000;
+        double[] thresholds = new double[bands.size()];
+        for (int k = 0; k < bands.size(); k++) {
+            thresholds[k] = echoThreshold * bank.getNoiseGain(k);
+        }
+
+        if (pool == null) {
+            for (int k = 0; k < bands.size(); k++) {
+                result.bandResults[k] = EchoTester.analyzeSamples(filtered[k], starts[k], templates.get(k).length,
+                        echoGateSamples, thresholds[k]);
+            }
+        } else {
+            List<Callable<EchoTester.TestResult>> tasks = new ArrayList<>();
+            for (int k = 0; k < bands.size(); k++) {
+                short[] band = filtered[k];
+                int[] bandStarts = starts[k];
+                int chirpLength = templates.get(k).length;
+                double threshold = thresholds[k];
+                tasks.add(() -> EchoTester.analyzeSamples(band, bandStarts, chirpLength, echoGateSamples, threshold));
+            }
+            List<Future<EchoTester.TestResult>> futures = pool.invokeAll(tasks);
+            for (int k = 0; k < futures.size(); k++) {
+                result.bandResults[k] = futures.get(k).get();
+            }
+        }
+
+        measureCrosstalk(filtered, starts, templates, sampleRate, result);
+
+        for (int k = 0; k < bands.size(); k++) {
+            Log.d(TAG, String.format("Band %s: echoes=%d/%d, SNR=%.2f dB, delay=%.2f ms, crosstalk=%.1f dB",
+                    bands.get(k).label(), result.bandResults[k].echoCount, starts[k].length,
+                    result.bandResults[k].snr, result.bandResults[k].echoDelayMs, result.worstCrosstalkDb[k]));
+        }
+
+        return result;
+    }
+
+    // crosstalkDb[victim][source]: power in the victim's filter output at the source's
+    // direct-path pulses, relative to the source's own output there. The victim's own echoes
+    // can fall in the same window, so this is an upper bound.
+    private static void measureCrosstalk(short[][] filtered, int[][] starts, List<short[]> templates,
+                                         int sampleRate, MultiBandResult result) {
+        int bandCount = filtered.length;
+        int window = (int) Math.ceil(CROSSTALK_WINDOW_MS * sampleRate / 1000);
+
+        for (int source = 0; source < bandCount; source++) {
+            double[] peakPower = new double[bandCount];
+            int pulseOffset = templates.get(source).length - 1;
+
+            for (int start : starts[source]) {
+                int from = Math.max(0, start + pulseOffset - window);
+                int to = Math.min(filtered[source].length, start + pulseOffset + window + 1);
+                for (int victim = 0; victim < bandCount; victim++) {
+                    double peak = 0;
+                    for (int i = from; i < to; i++) {
+                        peak = Math.max(peak, Math.abs(filtered[victim][i]));
+                    }
+                    peakPower[victim] += peak * peak;
+                }
+            }
+
+            for (int victim = 0; victim < bandCount; victim++) {
+                result.crosstalkDb[victim][source] = victim == source ? 0
+                        : 10 * Math.log10((peakPower[victim] + 1e-9) / (peakPower[source] + 1e-9));
+            }
+        }
+
+        for (int victim = 0; victim < bandCount; victim++) {
+            double worst = Double.NEGATIVE_INFINITY;
+            for (int source = 0; source < bandCount; source++) {
+                if (source != victim) {
+                    worst = Math.max(worst, result.crosstalkDb[victim][source]);
+                }
+            }
+            result.worstCrosstalkDb[victim] = worst;
+        }
+    }
+
+    private static int firstIndexForTag(ChirpSchedule schedule, int tag) {
+        for (int i = 0; i < schedule.size(); i++) {
+            if (schedule.getTag(i) == tag) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No chirps scheduled for band " + tag);
+    }
+
+    // Multi-band callback interface
+    public interface MultiBandCallback {
+        void onProgress(int percentComplete);
+        void onMultiBandComplete(MultiBandResult result);
+        void onError(String errorMessage);
+    }
+
+    // One TestResult per sub-band, plus the crosstalk between them
+    public static class MultiBandResult {
+        public final List<WaveformConfig> bands;
+        public final EchoTester.TestResult[] bandResults;
+        public final double[][] crosstalkDb;   // [victim][source]
+        public final double[] worstCrosstalkDb; // per victim, over all other sources
+        public double measurementsPerSecond = 0;
+        public double durationMs = 0;
+
+        MultiBandResult(List<WaveformConfig> bands) {
+            this.bands = Collections.unmodifiableList(new ArrayList<>(bands));
+            this.bandResults = new EchoTester.TestResult[bands.size()];
+            this.crosstalkDb = new double[bands.size()][bands.size()];
+            this.worstCrosstalkDb = new double[bands.size()];
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Echo analysis for multi-mic captures.
+//
+// Every channel goes through EchoTester.analyzeSamples on its own worker, and each channel's
+// echo window is cross-correlated against channel 0 over a bounded lag range to get the
+// inter-mic time difference, from which a bearing follows. The lag range is set by the mic
+// spacing, so the cost per channel is fixed and total cost grows linearly with channels.
+public final class MultiChannelAnalyzer {
+    private static final String TAG = "MultiChannelAnalyzer";
+
+    // Correlation interpolation: +-16 sample kernel, 1/16 sample lag resolution
+    private static final int INTERPOLATION_HALF_WIDTH = 16;
+    private static final int INTERPOLATION_STEPS = 16;
+
+    private MultiChannelAnalyzer() {
+    }
+
+    // Speed of sound in air at 20 C, m/s; turns inter-mic delays into bearings
+    public static final double SPEED_OF_SOUND = 343.0;
+
+    // Analyzes each channel in parallel on the given pool, or one after another without one.
+    // Results are in channel order.
+    public static EchoTester.TestResult[] analyzeChannels(short[][] channels, int[] chirpStarts,
+                                                          int chirpLength, ExecutorService pool)
+            throws InterruptedException, ExecutionException {
+        return analyzeChannels(channels, chirpStarts, chirpLength,
+                EchoTester.DEFAULT_ECHO_GATE_MS * EchoTester.SAMPLE_RATE / 1000, EchoTester.ECHO_THRESHOLD, pool);
+    }
+
+    // As above, with the echo gate and detection threshold to use on every channel
+    public static EchoTester.TestResult[] analyzeChannels(short[][] channels, int[] chirpStarts, int chirpLength,
+                                                          int echoGateSamples, double echoThreshold,
+                                                          ExecutorService pool)
+            throws InterruptedException, ExecutionException {
+        EchoTester.TestResult[] results = new EchoTester.TestResult[channels.length];
+        if (pool == null) {
+            for (int c = 0; c < results.length; c++) {
+                results[c] = EchoTester.analyzeSamples(channels[c], chirpStarts, chirpLength,
+                        echoGateSamples, echoThreshold);
+            }
+            return results;
+        }
+
+        List<Callable<EchoTester.TestResult>> tasks = new ArrayList<>();
+        for (short[] channel : channels) {
+            tasks.add(() -> EchoTester.analyzeSamples(channel, chirpStarts, chirpLength, echoGateSamples, echoThreshold));
+        }
+
+        List<Future<EchoTester.TestResult>> futures = pool.invokeAll(tasks);
+        for (int c = 0; c < results.length; c++) {
+            results[c] = futures.get(c).get();
+        }
+        return results;
+    }
+
+    // Time difference of arrival of each channel relative to channel 0, in ms. Positive
+    // means the channel hears the echoes later than channel 0.
+    public static double[] channelDelaysMs(short[][] channels, int[] chirpStarts, int chirpLength,
+                                           int maxLagSamples, int sampleRate) {
+        return channelDelaysMs(channels, chirpStarts, chirpLength,
+                EchoTester.DEFAULT_ECHO_GATE_MS * sampleRate / 1000, maxLagSamples, sampleRate);
+    }
+
+    // As above, with the echo window opening echoGateSamples after the end of each chirp;
+    // pass the gate the per-channel analysis used so both look at the same echoes
+    public static double[] channelDelaysMs(short[][] channels, int[] chirpStarts, int chirpLength,
+                                           int echoGateSamples, int maxLagSamples, int sampleRate) {
+        double[] delays = new double[channels.length];
+        for (int c = 1; c < channels.length; c++) {
+            double lag = estimateLag(channels[0], channels[c], chirpStarts, chirpLength, echoGateSamples,
+                    maxLagSamples, sampleRate);
+            delays[c] = lag * 1000.0 / sampleRate;
+        }
+        return delays;
+    }
+
+    // Lag of b relative to a in fractional samples, from the cross-correlation summed over
+    // every chirp's echo window (as in analyzeSamples, the default gate up to 50 ms after the
+    // end of the chirp).
+    //
+    // At 18-22 kHz a carrier cycle is only ~2.4 samples, so the correlation at whole-sample
+    // lags can miss the true peak by more than a cycle. The correlation is band-limited like
+    // the signals, so it is sinc-interpolated onto a fine lag grid before picking the peak.
+    public static double estimateLag(short[] a, short[] b, int[] chirpStarts, int chirpLength,
+                                     int maxLagSamples, int sampleRate) {
+        return estimateLag(a, b, chirpStarts, chirpLength, EchoTester.DEFAULT_ECHO_GATE_MS * sampleRate / 1000,
+                maxLagSamples, sampleRate);
+    }
+
+    // As above, with the echo window opening echoGateSamples after the end of each chirp
+    public static double estimateLag(short[] a, short[] b, int[] chirpStarts, int chirpLength,
+                                     int echoGateSamples, int maxLagSamples, int sampleRate) {
+        int span = maxLagSamples + INTERPOLATION_HALF_WIDTH;
+        double[] correlation = new double[2 * span + 1];
+        int windowStart = chirpLength + echoGateSamples;
+        int windowEnd = chirpLength + EchoTester.ECHO_WINDOW_MS * sampleRate / 1000;
+        int length = Math.min(a.length, b.length);
+
+        for (int chirpStart : chirpStarts) {
+            int from = Math.max(span, chirpStart + windowStart);
+            int to = Math.min(length - span, chirpStart + windowEnd);
+
+            for (int lag = -span; lag <= span; lag++) {
+                double sum = 0;
+                for (int i = from; i < to; i++) {
+                    sum += (double) a[i] * b[i + lag];
+                }
+                correlation[lag + span] += sum;
+            }
+        }
+
+        double bestLag = 0;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int step = -maxLagSamples * INTERPOLATION_STEPS; step <= maxLagSamples * INTERPOLATION_STEPS; step++) {
+            double lag = (double) step / INTERPOLATION_STEPS;
+            double value = interpolate(correlation, lag + span);
+            if (value > bestValue) {
+                bestValue = value;
+                bestLag = lag;
+            }
+        }
+
+        Log.d(TAG, String.format("Estimated inter-channel lag: %.2f samples", bestLag));
+        return bestLag;
+    }
+
+    // Hann-windowed sinc interpolation of samples at fractional position x
+    private static double interpolate(double[] samples, double x) {
+        int centre = (int) Math.floor(x);
+        double value = 0;
+
+        for (int k = centre - INTERPOLATION_HALF_WIDTH + 1; k <= centre + INTERPOLATION_HALF_WIDTH; k++) {
+            if (k < 0 || k >= samples.length) continue;
+            double d = x - k;
+            double sinc = d == 0 ? 1 : Math.sin(Math.PI * d) / (Math.PI * d);
+            double window = 0.5 + 0.5 * Math.cos(Math.PI * d / INTERPOLATION_HALF_WIDTH);
+            value += samples[k] * sinc * window;
+        }
+        return value;
+    }
+
+    // Bearing from broadside in degrees for a two-mic pair, given their time difference
+    public static double bearingDegrees(double delayMs, double micSpacingM) {
+        double ratio = delayMs / 1000 * SPEED_OF_SOUND / micSpacingM;
+        return Math.toDegrees(Math.asin(Math.max(-1, Math.min(1, ratio))));
+    }
+
+    // Largest physically possible lag for a mic spacing, in samples
+    public static int maxLagSamples(double micSpacingM, int sampleRate) {
+        return (int) Math.ceil(micSpacingM / SPEED_OF_SOUND * sampleRate) + 1;
+    }
+}
@@ -0,0 +1,263 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Adaptive direct-path canceller: a constrained frequency-domain block NLMS filter
+// (overlap-save, filter length = block length).
+//
+// It learns the speaker-to-mic coupling from the known transmit signal and subtracts its
+// prediction from the capture, leaving the echoes. Each block costs five FFTs of twice the
+// block length, so even a long filter runs far faster than real time on one core. Per-bin
+// step sizes are normalised by a smoothed estimate of the reference power.
+//
+// Anything the filter can model is removed, which includes reflectors closer than
+// taps / sampleRate * c / 2 (about 0.45 m for 128 taps at 48 kHz), so the filter should be
+// no longer than the speaker-to-mic ringing. Coefficients persist across calls and can be
+// exported and restored to warm-start the next session.
+public final class NlmsCanceller {
+    private static final double POWER_SMOOTHING = 0.9;
+    private static final double REGULARIZATION = 1e-6;
+    private static final int COEFFICIENT_VERSION = 1;
+
+    private final int taps;
+    private final double stepSize;
+    private final Fft fft;
+
+    // Filter in the frequency domain
+    private final double[] weightRe;
+    private final double[] weightIm;
+    private final double[] power;
+
+    // Previous reference block, the first half of each overlap-save frame
+    private final double[] previousReference;
+
+    // Scratch, reused for every block
+    private final double[] xRe;
+    private final double[] xIm;
+    private final double[] re;
+    private final double[] im;
+    private final double[] blockReference;
+    private final double[] blockCapture;
+    private final double[] blockError;
+
+    public NlmsCanceller(int taps, double stepSize) {
+        if (taps < 1 || Integer.bitCount(taps) != 1) {
+            throw new IllegalArgumentException("Tap count must be a power of two: " + taps);
+        }
+        if (stepSize <= 0 || stepSize >= 2) {
+            throw new IllegalArgumentException("Step size must be in (0, 2): " + stepSize);
+        }
+        this.taps = taps;
+        this.stepSize = stepSize;
+        this.fft = new Fft(2 * taps);
+
+        int size = 2 * taps;
+        weightRe = new double[size];
+        weightIm = new double[size];
+        power = new double[size];
+        previousReference = new double[taps];
+        xRe = new double[size];
+        xIm = new double[size];
+        re = new double[size];
+        im = new double[size];
+        blockReference = new double[taps];
+        blockCapture = new double[taps];
+        blockError = new double[taps];
+    }
+
+    public int getTaps() {
+        return taps;
+    }
+
+    // Cancels the reference's contribution from a whole capture, block by block. reference
+    // and capture must be sample-aligned (shift the reference by the known device latency
+    // first). A trailing partial block is processed zero-padded. Adaptation state carries
+    // over to the next call.
+    public short[] cancel(short[] reference, short[] capture) {
+        int length = Math.min(reference.length, capture.length);
+        short[] out = new short[capture.length];
+
+        for (int start = 0; start < length; start += taps) {
+            int count = Math.min(taps, length - start);
+            for (int i = 0; i < taps; i++) {
+                blockReference[i] = i < count ? reference[start + i] : 0;
+                blockCapture[i] = i < count ? capture[start + i] : 0;
+            }
+
+            processBlock(blockReference, blockCapture, blockError);
+
+            for (int i = 0; i < count; i++) {
+                out[start + i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(blockError[i])));
+            }
+        }
+
+        // Samples beyond the reference are passed through untouched
+        System.arraycopy(capture, length, out, length, capture.length - length);
+        return out;
+    }
+
+    // Processes one block of exactly getTaps() samples: error = capture - filtered reference
+    public void processBlock(double[] reference, double[] capture, double[] error) {
+        int size = 2 * taps;
+
+        // X = FFT([previous block, current block])
+        for (int i = 0; i < taps; i++) {
+            xRe[i] = previousReference[i];
+            xRe[taps + i] = reference[i];
+        }
+        Arrays.fill(xIm, 0);
+        fft.forward(xRe, xIm);
+        System.arraycopy(reference, 0, previousReference, 0, taps);
+
+        // y = last half of IFFT(X * W)
+        for (int k = 0; k < size; k++) {
+            re[k] = xRe[k] * weightRe[k] - xIm[k] * weightIm[k];
+            im[k] = xRe[k] * weightIm[k] + xIm[k] * weightRe[k];
+        }
+        fft.inverse(re, im);
+        for (int i = 0; i < taps; i++) {
+            error[i] = capture[i] - re[taps + i];
+        }
+
+        // E = FFT([0, e]); per-bin normalised gradient conj(X) * E / P
+        Arrays.fill(re, 0, taps, 0);
+        System.arraycopy(error, 0, re, taps, taps);
+        Arrays.fill(im, 0);
+        fft.forward(re, im);
+
+        // The smoothed power lags behind a chirp's onset after a silent gap, so normalise by
+        // whichever is larger, the smoothed or the current block's power
+        double totalPower = 0;
+        for (int k = 0; k < size; k++) {
+            double binPower = xRe[k] * xRe[k] + xIm[k] * xIm[k];
+            power[k] = Math.max(POWER_SMOOTHING * power[k] + (1 - POWER_SMOOTHING) * binPower, binPower);
+            totalPower += power[k];
+        }
+        // Keep out-of-band bins from blowing up on near-zero power
+        double powerFloor = REGULARIZATION * totalPower / size + 1e-9;
+
+        for (int k = 0; k < size; k++) {
+            double norm = 1.0 / (power[k] + powerFloor);
+            double gr = (xRe[k] * re[k] + xIm[k] * im[k]) * norm;
+            double gi = (xRe[k] * im[k] - xIm[k] * re[k]) * norm;
+            re[k] = gr;
+            im[k] = gi;
+        }
+
+        // Gradient constraint: keep only the first `taps` time-domain coefficients, so the
+        // circular convolution stays a linear one
+        fft.inverse(re, im);
+        Arrays.fill(re, taps, size, 0);
+        Arrays.fill(im, 0);
+        fft.forward(re, im);
+
+        for (int k = 0; k < size; k++) {
+            weightRe[k] += stepSize * re[k];
+            weightIm[k] += stepSize * im[k];
+        }
+    }
+
+    // Time-domain impulse response of the learned coupling
+    public double[] getCoefficients() {
+        int size = 2 * taps;
+        System.arraycopy(weightRe, 0, re, 0, size);
+        System.arraycopy(weightIm, 0, im, 0, size);
+        fft.inverse(re, im);
+
+        double[] coefficients = new double[taps];
+        System.arraycopy(re, 0, coefficients, 0, taps);
+        return coefficients;
+    }
+
+    // Warm start from a previously learned impulse response
+    public void setCoefficients(double[] coefficients) {
+        if (coefficients.length != taps) {
+            throw new IllegalArgumentException("Expected " + taps + " coefficients, got " + coefficients.length);
+        }
+        Arrays.fill(weightRe, 0);
+        Arrays.fill(weightIm, 0);
+        System.arraycopy(coefficients, 0, weightRe, 0, taps);
+        fft.forward(weightRe, weightIm);
+    }
+
+    // Forgets everything learned, including the reference history
+    public void reset() {
+        Arrays.fill(weightRe, 0);
+        Arrays.fill(weightIm, 0);
+        Arrays.fill(power, 0);
+        Arrays.fill(previousReference, 0);
+    }
+
+    // Bulk delay of the reference inside the capture (output-to-input latency plus the
+    // acoustic path), from the peak of their cross-correlation over lags 0..maxDelay.
+    // Used to align the reference so the filter's taps are spent on the coupling itself.
+    public static int estimateDelay(short[] reference, short[] capture, int maxDelay) {
+        return estimateDelay(reference, capture, 0, maxDelay);
+    }
+
+    // As above, over lags minDelay..maxDelay only, e.g. around a known latency
+    public static int estimateDelay(short[] reference, short[] capture, int minDelay, int maxDelay) {
+        if (minDelay < 0 || minDelay > maxDelay) {
+            throw new IllegalArgumentException("Invalid delay range: " + minDelay + ".." + maxDelay);
+        }
+        int length = Math.min(reference.length, capture.length);
+        int size = Fft.sizeFor(length + maxDelay);
+        Fft fft = new Fft(size);
+
+        double[] refRe = new double[size];
+        double[] refIm = new double[size];
+        double[] capRe = new double[size];
+        double[] capIm = new double[size];
+        for (int i = 0; i < length; i++) {
+            refRe[i] = reference[i];
+            capRe[i] = capture[i];
+        }
+        fft.forward(refRe, refIm);
+        fft.forward(capRe, capIm);
+
+        // Cross-correlation = IFFT(conj(R) * C)
+        for (int k = 0; k < size; k++) {
+            double re = refRe[k] * capRe[k] + refIm[k] * capIm[k];
+            double im = refRe[k] * capIm[k] - refIm[k] * capRe[k];
+            capRe[k] = re;
+            capIm[k] = im;
+        }
+        fft.inverse(capRe, capIm);
+
+        int best = minDelay;
+        for (int lag = minDelay + 1; lag <= Math.min(maxDelay, size - 1); lag++) {
+            if (Math.abs(capRe[lag]) > Math.abs(capRe[best])) {
+                best = lag;
+            }
+        }
+        return best;
+    }
+
+    // Compact serialization: version, tap count, float coefficients
+    public void writeCoefficients(DataOutput out) throws IOException {
+        out.writeByte(COEFFICIENT_VERSION);
+        out.writeInt(taps);
+        for (double coefficient : getCoefficients()) {
+            out.writeFloat((float) coefficient);
+        }
+    }
+
+    public void readCoefficients(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != COEFFICIENT_VERSION) {
+            throw new IOException("Unsupported coefficient version: " + version);
+        }
+        int count = in.readInt();
+        if (count != taps) {
+            throw new IOException("Expected " + taps + " coefficients, got " + count);
+        }
+        double[] coefficients = new double[count];
+        for (int i = 0; i < count; i++) {
+            coefficients[i] = in.readFloat();
+        }
+        setCoefficients(coefficients);
+    }
+}
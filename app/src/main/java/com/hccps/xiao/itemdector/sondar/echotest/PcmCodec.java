@@ -0,0 +1,493 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+// Lossless streaming codec for captured 16-bit PCM.
+//
+// Samples are cut into independently decodable blocks. Each block picks the fixed
+// polynomial predictor (order 0-4) with the smallest residual and Rice-codes the
+// residuals in partitions, each with its own Rice parameter.
+//
+// Block layout (big-endian):
+//   u16 sync | u16 sample count | u8 predictor order | u32 payload bytes | payload | u32 CRC
+// Payload: <order> raw warm-up samples, then per partition a 5-bit Rice parameter
+// followed by the Rice-coded residuals, padded to a whole byte. The CRC-32 covers the
+// header fields after the sync word and the payload, so damage is reported rather than
+// decoded into wrong samples.
+public final class PcmCodec {
+    public static final int BLOCK_SIZE = 4096; // samples per block
+    private static final int PARTITION_SIZE = 256; // samples per Rice partition
+    private static final int BLOCK_SYNC = 0x5043; // "PC"
+    private static final int HEADER_BYTES = 9;
+    private static final int CHECKSUM_BYTES = 4;
+    private static final int MAX_ORDER = 4;
+    private static final int MAX_RICE_PARAM = 20;
+    private static final int RICE_PARAM_BITS = 5;
+
+    // A quotient this large is written as an escape followed by the raw value, so a single
+    // outlier in a quiet partition cannot blow up into a huge unary run
+    private static final int ESCAPE_QUOTIENT = 24;
+    private static final int ESCAPE_VALUE_BITS = 21; // zigzagged order-4 residuals fit in 21 bits
+
+    private PcmCodec() {
+    }
+
+    // Convenience: encode a whole buffer in one go
+    public static byte[] encode(short[] samples) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(samples.length);
+        try (Encoder encoder = new Encoder(out)) {
+            encoder.write(samples, 0, samples.length);
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // Convenience: decode a whole stream produced by encode() or an Encoder
+    public static short[] decode(byte[] data) throws IOException {
+        Decoder decoder = new Decoder(new ByteArrayInputStream(data));
+        short[] samples = new short[BLOCK_SIZE];
+        int total = 0;
+        int read;
+
+        while ((read = decoder.read(samples, total, samples.length - total)) > 0) {
+            total += read;
+            if (total == samples.length) {
+                short[] grown = new short[samples.length * 2];
+                System.arraycopy(samples, 0, grown, 0, total);
+                samples = grown;
+            }
+        }
+
+        short[] result = new short[total];
+        System.arraycopy(samples, 0, result, 0, total);
+        return result;
+    }
+
+    // Streaming encoder. Buffers up to one block and encodes it when full; flush() and
+    // close() emit any partial block.
+    public static final class Encoder implements AutoCloseable {
+        private final DataOutputStream out;
+        private final short[] block = new short[BLOCK_SIZE];
+        private final int[][] residuals = new int[MAX_ORDER + 1][BLOCK_SIZE];
+        private final BitWriter bits = new BitWriter(BLOCK_SIZE * 2);
+        private final CRC32 crc = new CRC32();
+        private int blockFill = 0;
+        private long sampleCount = 0;
+        private long encodedBytes = 0;
+        private boolean closed = false;
+
+        public Encoder(OutputStream out) {
+            this.out = new DataOutputStream(out);
+        }
+
+        public void write(short[] samples, int offset, int length) throws IOException {
+            if (closed) {
+                throw new IOException("Encoder closed");
+            }
+
+            while (length > 0) {
+                int count = Math.min(length, BLOCK_SIZE - blockFill);
+                System.arraycopy(samples, offset, block, blockFill, count);
+                blockFill += count;
+                offset += count;
+                length -= count;
+
+                if (blockFill == BLOCK_SIZE) {
+                    encodeBlock();
+                }
+            }
+        }
+
+        public void flush() throws IOException {
+            if (blockFill > 0) {
+                encodeBlock();
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                flush();
+                closed = true;
+                out.close();
+            }
+        }
+
+        // Number of samples accepted so far
+        public long getSampleCount() {
+            return sampleCount;
+        }
+
+        // Number of bytes emitted so far (excludes samples still buffered)
+        public long getEncodedBytes() {
+            return encodedBytes;
+        }
+
+        private void encodeBlock() throws IOException {
+            int n = blockFill;
+            int order = chooseOrder(n);
+            int[] residual = residuals[order];
+
+            bits.reset();
+            for (int i = 0; i < order; i++) {
+                bits.write(block[i] & 0xFFFF, 16);
+            }
+
+            for (int start = order; start < n; start += PARTITION_SIZE) {
+                int end = Math.min(n, start + PARTITION_SIZE);
+                int param = riceParameter(residual, start, end);
+                bits.write(param, RICE_PARAM_BITS);
+                for (int i = start; i < end; i++) {
+                    writeRice(bits, zigzag(residual[i]), param);
+                }
+            }
+            bits.alignToByte();
+
+            out.writeShort(BLOCK_SYNC);
+            out.writeShort(n);
+            out.writeByte(order);
+            out.writeInt(bits.length());
+            out.write(bits.buffer(), 0, bits.length());
+            out.writeInt(checksum(crc, n, order, bits.buffer(), bits.length()));
+
+            encodedBytes += HEADER_BYTES + bits.length() + CHECKSUM_BYTES;
+            sampleCount += n;
+            blockFill = 0;
+        }
+
+        // Computes residuals for every fixed predictor and returns the cheapest order
+        private int chooseOrder(int n) {
+            int maxOrder = Math.min(MAX_ORDER, n - 1);
+            long[] cost = new long[MAX_ORDER + 1];
+
+            for (int i = 0; i < n; i++) {
+                int r0 = block[i];
+                residuals[0][i] = r0;
+                if (i >= 1) {
+                    int r1 = r0 - residuals[0][i - 1];
+                    residuals[1][i] = r1;
+                    if (i >= 2) {
+                        int r2 = r1 - residuals[1][i - 1];
+                        residuals[2][i] = r2;
+                        if (i >= 3) {
+                            int r3 = r2 - residuals[2][i - 1];
+                            residuals[3][i] = r3;
+                            if (i >= 4) {
+                                int r4 = r3 - residuals[3][i - 1];
+                                residuals[4][i] = r4;
+                                cost[4] += Math.abs(r4);
+                            }
+                            cost[3] += Math.abs(r3);
+                        }
+                        cost[2] += Math.abs(r2);
+                    }
+                    cost[1] += Math.abs(r1);
+                }
+                cost[0] += Math.abs(r0);
+            }
+
+            // Costs are summed over different ranges, so normalise per residual
+            int best = 0;
+            double bestCost = Double.MAX_VALUE;
+            for (int order = 0; order <= maxOrder; order++) {
+                double perSample = (double) cost[order] / (n - order);
+                if (perSample < bestCost) {
+                    bestCost = perSample;
+                    best = order;
+                }
+            }
+            return best;
+        }
+    }
+
+    // Streaming decoder. Blocks are self-contained: a block whose checksum does not match
+    // fails read() with an IOException after being consumed, so reading can carry on with
+    // the blocks after it. Damage to a header or sync word cannot be resynchronised.
+    public static final class Decoder {
+        private final DataInputStream in;
+        private final CRC32 crc = new CRC32();
+        private final short[] block = new short[BLOCK_SIZE];
+        private byte[] payload = new byte[BLOCK_SIZE * 2];
+        private int blockFill = 0;
+        private int blockPosition = 0;
+
+        public Decoder(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        // Reads up to length samples; returns the number read, or -1 at end of stream
+        public int read(short[] samples, int offset, int length) throws IOException {
+            int total = 0;
+
+            while (total < length) {
+                if (blockPosition == blockFill && !readBlock()) {
+                    break;
+                }
+                int count = Math.min(length - total, blockFill - blockPosition);
+                System.arraycopy(block, blockPosition, samples, offset + total, count);
+                blockPosition += count;
+                total += count;
+            }
+
+            return total == 0 && length > 0 ? -1 : total;
+        }
+
+        // Skips the next block without decoding its payload; returns its sample count,
+        // or -1 at end of stream
+        public int skipBlock() throws IOException {
+            blockPosition = blockFill;
+            int[] header = readHeader();
+            if (header == null) {
+                return -1;
+            }
+            in.skipBytes(header[2] + CHECKSUM_BYTES);
+            return header[0];
+        }
+
+        private boolean readBlock() throws IOException {
+            int[] header = readHeader();
+            if (header == null) {
+                return false;
+            }
+
+            int n = header[0];
+            int order = header[1];
+            int payloadBytes = header[2];
+
+            if (payload.length < payloadBytes) {
+                payload = new byte[payloadBytes];
+            }
+            in.readFully(payload, 0, payloadBytes);
+            int expected = in.readInt();
+            blockFill = 0;
+            blockPosition = 0;
+            if (checksum(crc, n, order, payload, payloadBytes) != expected) {
+                throw new IOException("Block checksum mismatch");
+            }
+
+            BitReader bits = new BitReader(payload, payloadBytes);
+            for (int i = 0; i < order; i++) {
+                block[i] = (short) bits.read(16);
+            }
+
+            for (int start = order; start < n; start += PARTITION_SIZE) {
+                int end = Math.min(n, start + PARTITION_SIZE);
+                int param = bits.read(RICE_PARAM_BITS);
+                for (int i = start; i < end; i++) {
+                    int r = unzigzag(readRice(bits, param));
+                    block[i] = (short) (predict(order, i) + r);
+                }
+            }
+
+            blockFill = n;
+            blockPosition = 0;
+            return true;
+        }
+
+        // Returns {sample count, order, payload bytes}, or null at a clean end of stream
+        private int[] readHeader() throws IOException {
+            int first = in.read();
+            if (first < 0) {
+                return null;
+            }
+            int sync = (first << 8) | in.readUnsignedByte();
+            if (sync != BLOCK_SYNC) {
+                throw new IOException("Bad block sync: " + Integer.toHexString(sync));
+            }
+
+            int n = in.readUnsignedShort();
+            int order = in.readUnsignedByte();
+            int payloadBytes = in.readInt();
+
+            if (n == 0 || n > BLOCK_SIZE || order > MAX_ORDER || order >= n || payloadBytes < 0) {
+                throw new IOException("Corrupt block header");
+            }
+            return new int[]{n, order, payloadBytes};
+        }
+
+        private int predict(int order, int i) {
+            switch (order) {
+                case 0:
+                    return 0;
+                case 1:
+                    return block[i - 1];
+                case 2:
+                    return 2 * block[i - 1] - block[i - 2];
+                case 3:
+                    return 3 * block[i - 1] - 3 * block[i - 2] + block[i - 3];
+                default:
+                    return 4 * block[i - 1] - 6 * block[i - 2] + 4 * block[i - 3] - block[i - 4];
+            }
+        }
+    }
+
+    // CRC-32 of a block's header fields and payload
+    private static int checksum(CRC32 crc, int sampleCount, int order, byte[] payload, int payloadBytes) {
+        crc.reset();
+        crc.update(sampleCount >>> 8);
+        crc.update(sampleCount);
+        crc.update(order);
+        crc.update(payloadBytes >>> 24);
+        crc.update(payloadBytes >>> 16);
+        crc.update(payloadBytes >>> 8);
+        crc.update(payloadBytes);
+        crc.update(payload, 0, payloadBytes);
+        return (int) crc.getValue();
+    }
+
+    // Picks the Rice parameter from the mean zigzagged residual of a partition
+    private static int riceParameter(int[] residual, int start, int end) {
+        long sum = 0;
+        for (int i = start; i < end; i++) {
+            sum += zigzag(residual[i]);
+        }
+        long mean = sum / (end - start);
+        int param = mean > 0 ? 63 - Long.numberOfLeadingZeros(mean) : 0;
+        return Math.min(param, MAX_RICE_PARAM);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeRice(BitWriter bits, int value, int param) {
+        int quotient = value >>> param;
+        if (quotient >= ESCAPE_QUOTIENT) {
+            bits.writeOnes(ESCAPE_QUOTIENT);
+            bits.write(value, ESCAPE_VALUE_BITS);
+            return;
+        }
+        bits.writeOnes(quotient);
+        bits.write(0, 1);
+        if (param > 0) {
+            bits.write(value & ((1 << param) - 1), param);
+        }
+    }
+
+    private static int readRice(BitReader bits, int param) throws IOException {
+        int quotient = bits.countOnes(ESCAPE_QUOTIENT);
+        if (quotient == ESCAPE_QUOTIENT) {
+            return bits.read(ESCAPE_VALUE_BITS);
+        }
+        int remainder = param > 0 ? bits.read(param) : 0;
+        return (quotient << param) | remainder;
+    }
+
+    // MSB-first bit packer over a growable byte array
+    private static final class BitWriter {
+        private byte[] buffer;
+        private int length = 0;
+        private long accumulator = 0;
+        private int accumulatorBits = 0;
+
+        BitWriter(int initialCapacity) {
+            buffer = new byte[initialCapacity];
+        }
+
+        void reset() {
+            length = 0;
+            accumulator = 0;
+            accumulatorBits = 0;
+        }
+
+        // Writes the low `count` bits of value (count <= 32)
+        void write(int value, int count) {
+            accumulator = (accumulator << count) | (value & ((1L << count) - 1));
+            accumulatorBits += count;
+            drain();
+        }
+
+        void writeOnes(int count) {
+            while (count > 0) {
+                int chunk = Math.min(count, 32);
+                write(-1, chunk);
+                count -= chunk;
+            }
+        }
+
+        void alignToByte() {
+            if (accumulatorBits % 8 != 0) {
+                write(0, 8 - accumulatorBits % 8);
+            }
+        }
+
+        byte[] buffer() {
+            return buffer;
+        }
+
+        int length() {
+            return length;
+        }
+
+        private void drain() {
+            while (accumulatorBits >= 8) {
+                if (length == buffer.length) {
+                    byte[] grown = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, grown, 0, length);
+                    buffer = grown;
+                }
+                accumulatorBits -= 8;
+                buffer[length++] = (byte) (accumulator >>> accumulatorBits);
+            }
+        }
+    }
+
+    // MSB-first bit reader over a byte array
+    private static final class BitReader {
+        private final byte[] buffer;
+        private final int length;
+        private int position = 0;
+        private long accumulator = 0;
+        private int accumulatorBits = 0;
+
+        BitReader(byte[] buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+
+        // Reads `count` bits (count <= 32) as an unsigned value
+        int read(int count) throws IOException {
+            fill(count);
+            accumulatorBits -= count;
+            return (int) ((accumulator >>> accumulatorBits) & ((1L << count) - 1));
+        }
+
+        // Counts leading one bits and consumes the terminating zero; stops at limit
+        // without consuming anything further
+        int countOnes(int limit) throws IOException {
+            int count = 0;
+            while (count < limit) {
+                if (read(1) == 0) {
+                    return count;
+                }
+                count++;
+            }
+            return count;
+        }
+
+        private void fill(int count) throws IOException {
+            while (accumulatorBits < count) {
+                if (position >= length) {
+                    throw new EOFException("Truncated block payload");
+                }
+                accumulator = (accumulator << 8) | (buffer[position++] & 0xFF);
+                accumulatorBits += 8;
+            }
+        }
+    }
+}
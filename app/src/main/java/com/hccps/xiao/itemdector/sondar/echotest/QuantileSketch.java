@@ -0,0 +1,283 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// Mergeable quantile sketch with relative accuracy guarantees (log-bucketed, DDSketch style).
+//
+// Each value lands in the bucket ceil(log(|x|) / log(gamma)), gamma = (1 + a) / (1 - a), so
+// any reported quantile is within a relative error a of a value actually seen at that rank.
+// Positive and negative values have their own buckets and values smaller in magnitude than
+// MIN_MAGNITUDE count as zero. Each side holds at most MAX_BUCKETS buckets; past that the
+// buckets nearest zero are folded together, so memory is bounded however many values are
+// added and only the smallest magnitudes lose accuracy.
+//
+// Two sketches with the same accuracy merge by adding bucket counts, which gives exactly
+// the sketch of the combined data.
+public final class QuantileSketch {
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+    private static final double MIN_MAGNITUDE = 1e-6;
+    private static final int MAX_BUCKETS = 2048;
+    private static final int FORMAT_VERSION = 1;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+
+    private final Buckets positive = new Buckets();
+    private final Buckets negative = new Buckets();
+    private long zeroCount = 0;
+    private long count = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    public QuantileSketch(double relativeAccuracy) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("Relative accuracy must be in (0, 1): " + relativeAccuracy);
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Cannot add " + value);
+        }
+
+        if (value > MIN_MAGNITUDE) {
+            positive.add(bucketOf(value), 1);
+        } else if (value < -MIN_MAGNITUDE) {
+            negative.add(bucketOf(-value), 1);
+        } else {
+            zeroCount++;
+        }
+
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    // Folds another sketch's counts into this one
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Cannot merge sketches with different accuracy: "
+                    + relativeAccuracy + " vs " + other.relativeAccuracy);
+        }
+        if (other.count == 0) {
+            return;
+        }
+
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return count > 0 ? min : Double.NaN;
+    }
+
+    public double getMax() {
+        return count > 0 ? max : Double.NaN;
+    }
+
+    // Value at quantile q in [0, 1], NaN when empty
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile must be in [0, 1]: " + q);
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        long rank = (long) Math.floor(q * (count - 1));
+        double value;
+
+        // Ascending order: large negatives, small negatives, zeros, small positives, large positives
+        if (rank < negative.total) {
+            value = -valueOf(negative.bucketAtRank(negative.total - 1 - rank));
+        } else if (rank < negative.total + zeroCount) {
+            value = 0;
+        } else {
+            value = valueOf(positive.bucketAtRank(rank - negative.total - zeroCount));
+        }
+        return Math.max(min, Math.min(max, value));
+    }
+
+    // Compact serialization so sketches from other sessions or devices can be merged later
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeDouble(relativeAccuracy);
+        out.writeLong(zeroCount);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        positive.write(out);
+        negative.write(out);
+    }
+
+    public static QuantileSketch read(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported sketch version: " + version);
+        }
+
+        QuantileSketch sketch = new QuantileSketch(in.readDouble());
+        sketch.zeroCount = in.readLong();
+        sketch.min = in.readDouble();
+        sketch.max = in.readDouble();
+        sketch.positive.read(in);
+        sketch.negative.read(in);
+        sketch.count = sketch.zeroCount + sketch.positive.total + sketch.negative.total;
+        return sketch;
+    }
+
+    private int bucketOf(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / logGamma);
+    }
+
+    // Midpoint (in relative terms) of a bucket's range (gamma^(i-1), gamma^i]
+    private double valueOf(int bucket) {
+        return 2 * Math.pow(gamma, bucket) / (gamma + 1);
+    }
+
+    // Dense run of bucket counts starting at bucket index `offset`, grown on demand. Only
+    // buckets lowest..highest hold counts; the rest of the array is headroom.
+    private static final class Buckets {
+        long[] counts = new long[0];
+        int offset = 0;
+        int lowest = 0;
+        int highest = 0;
+        long total = 0;
+
+        void add(int bucket, long n) {
+            if (total == 0) {
+                if (counts.length == 0) {
+                    counts = new long[16];
+                }
+                offset = bucket;
+                lowest = bucket;
+                highest = bucket;
+            }
+
+            // Past the size limit, everything nearest zero shares the lowest bucket. The limit
+            // is on the occupied span, so the result does not depend on the order of adds.
+            if (bucket < lowest) {
+                bucket = Math.max(bucket, highest - MAX_BUCKETS + 1);
+            } else if (bucket > highest && bucket - lowest >= MAX_BUCKETS) {
+                collapseBelow(bucket - MAX_BUCKETS + 1);
+            }
+
+            ensureRange(bucket);
+            counts[bucket - offset] += n;
+            lowest = Math.min(lowest, bucket);
+            highest = Math.max(highest, bucket);
+            total += n;
+        }
+
+        void merge(Buckets other) {
+            if (other.total == 0) {
+                return;
+            }
+            for (int b = other.lowest; b <= other.highest; b++) {
+                long n = other.counts[b - other.offset];
+                if (n != 0) {
+                    add(b, n);
+                }
+            }
+        }
+
+        // Bucket holding the value at an ascending rank within this side
+        int bucketAtRank(long rank) {
+            long seen = 0;
+            for (int b = lowest; b <= highest; b++) {
+                seen += counts[b - offset];
+                if (seen > rank) {
+                    return b;
+                }
+            }
+            return highest;
+        }
+
+        // Moves all counts below `floor` into bucket `floor`
+        private void collapseBelow(int floor) {
+            if (floor <= lowest) {
+                return;
+            }
+            long folded = 0;
+            for (int b = lowest; b < Math.min(floor, highest + 1); b++) {
+                folded += counts[b - offset];
+                counts[b - offset] = 0;
+            }
+            if (floor > highest) {
+                // Everything folded, so the now empty array can start at the floor
+                offset = floor;
+                highest = floor;
+            }
+            lowest = floor;
+            counts[floor - offset] += folded;
+        }
+
+        // Makes room for `bucket` alongside the occupied span, re-basing the array if needed.
+        // Headroom goes on the side being grown, so repeated growth in one direction is cheap.
+        private void ensureRange(int bucket) {
+            if (bucket >= offset && bucket - offset < counts.length) {
+                return;
+            }
+            int low = Math.min(lowest, bucket);
+            int high = Math.max(highest, bucket);
+            int span = high - low + 1;
+            long[] grown = new long[Math.max(span, Math.min(MAX_BUCKETS, counts.length * 2))];
+            int grownOffset = bucket < offset ? high - grown.length + 1 : low;
+
+            for (int b = lowest; b <= highest; b++) {
+                grown[b - grownOffset] = counts[b - offset];
+            }
+            counts = grown;
+            offset = grownOffset;
+        }
+
+        void write(DataOutput out) throws IOException {
+            if (total == 0) {
+                out.writeInt(0);
+                out.writeInt(0);
+                return;
+            }
+            out.writeInt(lowest);
+            out.writeInt(highest - lowest + 1);
+            for (int b = lowest; b <= highest; b++) {
+                out.writeLong(counts[b - offset]);
+            }
+        }
+
+        void read(DataInput in) throws IOException {
+            int start = in.readInt();
+            int length = in.readInt();
+            if (length < 0 || length > MAX_BUCKETS) {
+                throw new IOException("Invalid bucket count: " + length);
+            }
+            for (int i = 0; i < length; i++) {
+                long n = in.readLong();
+                if (n != 0) {
+                    add(start + i, n);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Locale;
+
+// Streaming summary of many TestResults in constant memory.
+//
+// Each result updates the echo count and one RunningStats per metric, so long campaigns cost
+// the same memory as a single run and the summary is available at any time. Aggregators from
+// other sessions or devices can be merged, directly or after a write()/read() round trip.
+public final class ResultAggregator {
+    private static final int FORMAT_VERSION = 1;
+
+    private long runCount = 0;
+    private long echoCount = 0;
+
+    private final RunningStats snr;
+    private final RunningStats energy;
+    private final RunningStats delay;       // only runs with an echo
+    private final RunningStats loopLatency; // only runs where it was measured
+
+    public ResultAggregator() {
+        this(new RunningStats("SNR", "dB"),
+                new RunningStats("Signal Energy", ""),
+                new RunningStats("Echo Delay", "ms"),
+                new RunningStats("Loop Latency", "ms"));
+    }
+
+    private ResultAggregator(RunningStats snr, RunningStats energy, RunningStats delay, RunningStats loopLatency) {
+        this.snr = snr;
+        this.energy = energy;
+        this.delay = delay;
+        this.loopLatency = loopLatency;
+    }
+
+    public void add(EchoTester.TestResult result) {
+        runCount++;
+        snr.add(result.snr);
+        energy.add(result.signalEnergy);
+
+        if (result.echoDetected) {
+            echoCount++;
+            delay.add(result.echoDelayMs);
+        }
+        loopLatency.add(result.loopLatencyMs);
+    }
+
+    public void merge(ResultAggregator other) {
+        runCount += other.runCount;
+        echoCount += other.echoCount;
+        snr.merge(other.snr);
+        energy.merge(other.energy);
+        delay.merge(other.delay);
+        loopLatency.merge(other.loopLatency);
+    }
+
+    public long getRunCount() {
+        return runCount;
+    }
+
+    public long getEchoCount() {
+        return echoCount;
+    }
+
+    public double getEchoRate() {
+        return runCount > 0 ? (double) echoCount / runCount : Double.NaN;
+    }
+
+    public RunningStats getSnr() {
+        return snr;
+    }
+
+    public RunningStats getEnergy() {
+        return energy;
+    }
+
+    public RunningStats getDelay() {
+        return delay;
+    }
+
+    public RunningStats getLoopLatency() {
+        return loopLatency;
+    }
+
+    // Multi-line summary for display
+    public String summary() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "Tests Run: %d\n", runCount));
+        builder.append(String.format(Locale.US, "Echo Detection Rate: %.1f%% (%d/%d)\n",
+                runCount > 0 ? getEchoRate() * 100 : 0.0, echoCount, runCount));
+        builder.append(snr.format()).append('\n');
+        builder.append(energy.format()).append('\n');
+        builder.append(delay.format()).append('\n');
+        builder.append(loopLatency.format()).append('\n');
+        return builder.toString();
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(runCount);
+        out.writeLong(echoCount);
+        snr.write(out);
+        energy.write(out);
+        delay.write(out);
+        loopLatency.write(out);
+    }
+
+    public static ResultAggregator read(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported aggregate version: " + version);
+        }
+        long runCount = in.readLong();
+        long echoCount = in.readLong();
+
+        ResultAggregator aggregator = new ResultAggregator(
+                RunningStats.read("SNR", "dB", in),
+                RunningStats.read("Signal Energy", "", in),
+                RunningStats.read("Echo Delay", "ms", in),
+                RunningStats.read("Loop Latency", "ms", in));
+        aggregator.runCount = runCount;
+        aggregator.echoCount = echoCount;
+        return aggregator;
+    }
+}
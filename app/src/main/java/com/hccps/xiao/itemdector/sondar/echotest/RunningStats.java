@@ -0,0 +1,120 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Locale;
+
+// Constant-memory summary of one metric: Welford mean/variance plus a quantile sketch.
+//
+// add() is O(1) and nothing is kept per value. Two summaries merge exactly for count, mean,
+// variance, min and max (Chan et al.'s pairwise update) and within the sketch's relative
+// accuracy for percentiles.
+public final class RunningStats {
+    private final String name;
+    private final String unit;
+
+    private long count = 0;
+    private double mean = 0;
+    private double m2 = 0; // sum of squared deviations from the mean
+    private final QuantileSketch sketch;
+
+    public RunningStats(String name, String unit) {
+        this(name, unit, new QuantileSketch());
+    }
+
+    private RunningStats(String name, String unit, QuantileSketch sketch) {
+        this.name = name;
+        this.unit = unit;
+        this.sketch = sketch;
+    }
+
+    // Non-finite values (the SNR of a silent capture, a latency that was not measured) are skipped
+    public void add(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        sketch.add(value);
+    }
+
+    public void merge(RunningStats other) {
+        if (other.count == 0) {
+            return;
+        }
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        m2 += other.m2 + delta * delta * count * other.count / total;
+        count = total;
+        sketch.merge(other.sketch);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return count > 0 ? mean : Double.NaN;
+    }
+
+    // Sample variance
+    public double getVariance() {
+        return count > 1 ? m2 / (count - 1) : Double.NaN;
+    }
+
+    public double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+
+    public double getMin() {
+        return sketch.getMin();
+    }
+
+    public double getMax() {
+        return sketch.getMax();
+    }
+
+    public double quantile(double q) {
+        return sketch.quantile(q);
+    }
+
+    // One-line summary: mean, spread and tail percentiles
+    public String format() {
+        if (count == 0) {
+            return String.format(Locale.US, "%s: no data", name);
+        }
+        return String.format(Locale.US, "%s: %.2f +/- %.2f %s (p50 %.2f, p95 %.2f, p99 %.2f, n=%d)",
+                name, getMean(), count > 1 ? getStdDev() : 0.0, unit,
+                quantile(0.50), quantile(0.95), quantile(0.99), count);
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(count);
+        out.writeDouble(mean);
+        out.writeDouble(m2);
+        sketch.write(out);
+    }
+
+    // Reads back a summary written by write(); name and unit are not stored
+    public static RunningStats read(String name, String unit, DataInput in) throws IOException {
+        long count = in.readLong();
+        double mean = in.readDouble();
+        double m2 = in.readDouble();
+        RunningStats stats = new RunningStats(name, unit, QuantileSketch.read(in));
+        if (stats.sketch.getCount() != count) {
+            throw new IOException("Sketch holds " + stats.sketch.getCount() + " values, expected " + count);
+        }
+        stats.count = count;
+        stats.mean = mean;
+        stats.m2 = m2;
+        return stats;
+    }
+}
@@ -0,0 +1,151 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+// Parameter sweep over a grid of waveform configurations.
+//
+// All configurations are interleaved round-robin into one continuous ChirpSchedule and
+// captured in a single audio session, so the devices are started once and the only dead
+// time is each chirp's own listen window. Interleaving also spreads slow drift in the
+// room or the hardware evenly over every configuration.
+public class SweepRunner {
+    private static final String TAG = "SweepRunner";
+
+    // Silence before the first chirp, gives the devices time to settle
+    private static final int LEAD_IN_MS = 100;
+
+    private SweepRunner() {
+    }
+
+    // Builds the interleaved schedule with freshly generated chirps
+    public static ChirpSchedule plan(List<WaveformConfig> configs, int repetitions, int sampleRate) {
+        return plan(configs, repetitions, sampleRate, config -> config.generateChirp(sampleRate));
+    }
+
+    // Builds the interleaved schedule. Each chirp is tagged with its configuration index.
+    public static ChirpSchedule plan(List<WaveformConfig> configs, int repetitions, int sampleRate,
+                                     Function<WaveformConfig, short[]> templateSource) {
+        if (configs.isEmpty() || repetitions <= 0) {
+            throw new IllegalArgumentException("Sweep needs at least one configuration and repetition");
+        }
+
+        List<short[]> templates = new ArrayList<>();
+        for (WaveformConfig config : configs) {
+            templates.add(templateSource.apply(config));
+        }
+
+        ChirpSchedule schedule = new ChirpSchedule();
+        int position = LEAD_IN_MS * sampleRate / 1000;
+
+        for (int rep = 0; rep < repetitions; rep++) {
+            for (int c = 0; c < configs.size(); c++) {
+                schedule.add(position, templates.get(c), c);
+                position += configs.get(c).slotSamples(sampleRate);
+            }
+        }
+        schedule.setTotalSamples(position);
+
+        Log.d(TAG, String.format("Sweep planned: %d configs x %d reps = %d chirps, %.2f s",
+                configs.size(), repetitions, schedule.size(), (double) position / sampleRate));
+
+        return schedule;
+    }
+
+    // Analyzes a capture of the schedule, one cell per configuration
+    public static SweepResult analyze(short[] capture, ChirpSchedule schedule,
+                                      List<WaveformConfig> configs, int sampleRate) {
+        return analyze(capture, schedule, configs, sampleRate, EchoTester.DEFAULT_ECHO_GATE_MS);
+    }
+
+    // As above, with the echo window opening echoGateMs after the end of each chirp
+    public static SweepResult analyze(short[] capture, ChirpSchedule schedule,
+                                      List<WaveformConfig> configs, int sampleRate, int echoGateMs) {
+        return analyze(capture, schedule, configs, sampleRate, echoGateMs, EchoTester.ECHO_THRESHOLD);
+    }
+
+    // As above, with the minimum echo energy for a detection. Each chirp's echo window ends
+    // with its slot, so a short listen window never picks up the next chirp, and noise comes
+    // from the quiet stretch before each chirp once the previous chirp's echoes are over.
+    public static SweepResult analyze(short[] capture, ChirpSchedule schedule, List<WaveformConfig> configs,
+                                      int sampleRate, int echoGateMs, double echoThreshold) {
+        SweepResult result = new SweepResult(configs);
+        result.durationMs = capture.length * 1000.0 / sampleRate;
+
+        int[][] quiet = quietWindows(schedule, sampleRate);
+        for (int c = 0; c < configs.size(); c++) {
+            int[] starts = schedule.startsForTag(c);
+            int[] noiseStarts = new int[starts.length];
+            int[] noiseEnds = new int[starts.length];
+            for (int i = 0, n = 0; i < schedule.size(); i++) {
+                if (schedule.getTag(i) == c) {
+                    noiseStarts[n] = quiet[0][i];
+                    noiseEnds[n] = quiet[1][i];
+                    n++;
+                }
+            }
+
+            WaveformConfig config = configs.get(c);
+            int chirpLength = config.chirpSamples(sampleRate);
+            int echoWindow = Math.min(EchoTester.ECHO_WINDOW_MS * sampleRate / 1000,
+                    config.slotSamples(sampleRate) - chirpLength);
+            result.cellResults[c] = EchoTester.analyzeSamples(capture, starts, chirpLength,
+                    echoGateMs * sampleRate / 1000, echoThreshold, echoWindow, noiseStarts, noiseEnds);
+
+            Log.d(TAG, String.format("Cell %s: echoes=%d/%d, SNR=%.2f dB, delay=%.2f ms",
+                    configs.get(c).label(), result.cellResults[c].echoCount, starts.length,
+                    result.cellResults[c].snr, result.cellResults[c].echoDelayMs));
+        }
+
+        return result;
+    }
+
+    // {starts, ends} of the noise window for every chirp of the schedule: up to
+    // NOISE_WINDOW_SAMPLES right before the chirp, but no earlier than the end of the previous
+    // chirp's echo window. Where the previous slot is too short to leave any, the lead-in
+    // before the first chirp stands in.
+    private static int[][] quietWindows(ChirpSchedule schedule, int sampleRate) {
+        int echoWindow = EchoTester.ECHO_WINDOW_MS * sampleRate / 1000;
+        int first = schedule.size() > 0 ? schedule.getStart(0) : 0;
+        int[][] windows = new int[2][schedule.size()];
+
+        for (int i = 0; i < schedule.size(); i++) {
+            int start = schedule.getStart(i);
+            int from = Math.max(0, start - EchoTester.NOISE_WINDOW_SAMPLES);
+            if (i > 0) {
+                from = Math.max(from, schedule.getStart(i - 1) + schedule.getTemplate(i - 1).length + echoWindow);
+            }
+            if (from < start) {
+                windows[0][i] = from;
+                windows[1][i] = start;
+            } else {
+                windows[0][i] = Math.max(0, first - EchoTester.NOISE_WINDOW_SAMPLES);
+                windows[1][i] = first;
+            }
+        }
+        return windows;
+    }
+
+    // Sweep callback interface
+    public interface SweepCallback {
+        void onProgress(int percentComplete);
+        void onSweepComplete(SweepResult result);
+        void onError(String errorMessage);
+    }
+
+    // Aggregated results, one TestResult per configuration
+    public static class SweepResult {
+        public final List<WaveformConfig> configs;
+        public final EchoTester.TestResult[] cellResults;
+        public double durationMs = 0;
+
+        SweepResult(List<WaveformConfig> configs) {
+            this.configs = Collections.unmodifiableList(new ArrayList<>(configs));
+            this.cellResults = new EchoTester.TestResult[configs.size()];
+        }
+    }
+}
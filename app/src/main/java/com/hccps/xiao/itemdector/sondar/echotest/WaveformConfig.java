@@ -0,0 +1,82 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import java.util.Locale;
+
+// One transmit waveform: a Hamming-windowed linear chirp followed by a listen window
+// in which its echoes are expected to arrive
+public final class WaveformConfig {
+    public final int minFreq; // Hz
+    public final int maxFreq; // Hz
+    public final int durationMs;
+    public final int listenMs; // silence after the chirp before the next one may start
+
+    public WaveformConfig(int minFreq, int maxFreq, int durationMs, int listenMs) {
+        if (minFreq <= 0 || maxFreq <= minFreq || durationMs <= 0 || listenMs < 0) {
+            throw new IllegalArgumentException("Invalid waveform: " + minFreq + "-" + maxFreq
+                    + " Hz, " + durationMs + " ms, listen " + listenMs + " ms");
+        }
+        this.minFreq = minFreq;
+        this.maxFreq = maxFreq;
+        this.durationMs = durationMs;
+        this.listenMs = listenMs;
+    }
+
+    public int chirpSamples(int sampleRate) {
+        return (int) (sampleRate * durationMs / 1000.0);
+    }
+
+    // Chirp plus listen window, in samples
+    public int slotSamples(int sampleRate) {
+        return chirpSamples(sampleRate) + (int) ((long) sampleRate * listenMs / 1000);
+    }
+
+    // Generate linear chirp with Hamming window
+    public short[] generateChirp(int sampleRate) {
+        int chirpSamples = chirpSamples(sampleRate);
+        short[] chirp = new short[chirpSamples];
+
+        // Calculate chirp rate (Hz/s)
+        double chirpRate = (double) (maxFreq - minFreq) / (durationMs / 1000.0);
+
+        for (int i = 0; i < chirpSamples; i++) {
+            double time = (double) i / sampleRate;
+            double phase = 2 * Math.PI * (minFreq * time + 0.5 * chirpRate * time * time);
+
+            // Apply Hamming window
+            double window = 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (chirpSamples - 1));
+
+            // Use maximum amplitude for better SNR
+            double amplitude = Short.MAX_VALUE * 0.95 * window;
+            chirp[i] = (short) (amplitude * Math.sin(phase));
+        }
+
+        return chirp;
+    }
+
+    public String label() {
+        return String.format(Locale.US, "%.1f-%.1fkHz/%dms", minFreq / 1000.0, maxFreq / 1000.0, durationMs);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof WaveformConfig)) return false;
+        WaveformConfig other = (WaveformConfig) o;
+        return minFreq == other.minFreq && maxFreq == other.maxFreq
+                && durationMs == other.durationMs && listenMs == other.listenMs;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = minFreq;
+        result = 31 * result + maxFreq;
+        result = 31 * result + durationMs;
+        result = 31 * result + listenMs;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return label() + " +" + listenMs + "ms";
+    }
+}
@@ -0,0 +1,159 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Calibration measurement on {@link EchoSimulator} captures, and profile persistence.
+ */
+public class CalibrationProfileTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int TAPS = 128;
+    private static final int SOURCE = 9;
+
+    private static ChirpSchedule calibrationSchedule() {
+        return SweepRunner.plan(Collections.singletonList(new WaveformConfig(18000, 22000, 20, 130)), 8, SAMPLE_RATE);
+    }
+
+    @Test
+    public void measure_findsLatencyNoiseAndDirectPath() throws Exception {
+        double latencyMs = 12;
+        double noiseRms = 30;
+        EchoSimulator simulator = new EchoSimulator.Builder(SAMPLE_RATE)
+                .setDirectPath(latencyMs, 0.5)
+                .addReflector(4.0, 0.05)
+                .setNoise(noiseRms, 0)
+                .setSeed(11)
+                .build();
+        ChirpSchedule schedule = calibrationSchedule();
+        short[] capture = simulator.render(schedule).samples;
+
+        CalibrationProfile profile = EchoTester.measureCalibration(capture, schedule, new NlmsCanceller(TAPS, 0.5));
+
+        // Raw correlation can land one ~2.4 sample carrier cycle off
+        assertEquals(latencyMs * SAMPLE_RATE / 1000, profile.latencySamples, 3);
+        assertEquals(noiseRms, profile.noiseFloorRms, noiseRms * 0.2);
+        assertEquals(TAPS, profile.directPathResponse.length);
+        assertTrue(profile.isCompatible(SAMPLE_RATE, TAPS));
+
+        // The response only covers the chirp band, so check what it does to a chirp: the
+        // direct path has gain 0.5
+        short[] chirp = schedule.getTemplate(0);
+        double heardPeak = 0;
+        int chirpPeak = 0;
+        for (int n = 0; n < chirp.length + TAPS - 1; n++) {
+            double sum = 0;
+            for (int i = Math.max(0, n - chirp.length + 1); i <= Math.min(n, TAPS - 1); i++) {
+                sum += profile.directPathResponse[i] * chirp[n - i];
+            }
+            heardPeak = Math.max(heardPeak, Math.abs(sum));
+        }
+        for (short s : chirp) {
+            chirpPeak = Math.max(chirpPeak, Math.abs(s));
+        }
+        assertEquals(0.5, heardPeak / chirpPeak, 0.05);
+    }
+
+    @Test
+    public void measure_findsRingingPastTheCancellerReach() throws Exception {
+        // The direct path followed by 4 ms of ringing, modelled as a train of weaker copies.
+        // The canceller's taps only reach about 2 ms past the direct path.
+        double latencyMs = 12;
+        double ringingMs = 4;
+        EchoSimulator.Builder builder = new EchoSimulator.Builder(SAMPLE_RATE)
+                .setDirectPath(latencyMs, 0.5)
+                .addReflector(4.0, 0.05)
+                .setNoise(30, 0)
+                .setSeed(11);
+        for (double t = 0.25; t <= ringingMs; t += 0.25) {
+            builder.addReflector((latencyMs + t) * EchoSimulator.SPEED_OF_SOUND / 2000, 0.1);
+        }
+        ChirpSchedule schedule = calibrationSchedule();
+        short[] capture = builder.build().render(schedule).samples;
+
+        CalibrationProfile profile = EchoTester.measureCalibration(capture, schedule, new NlmsCanceller(TAPS, 0.5));
+        // Plus the compressed pulse's own width
+        assertEquals(ringingMs + 0.5, profile.directPathTailMs, 0.5);
+        // Even with cancellation the echo window stays clear of it
+        assertTrue(EchoTester.echoGateMs(profile, true) >= ringingMs);
+
+        // Without ringing only the pulse is left, and the 4 m echo after it is not counted
+        CalibrationProfile dry = EchoTester.measureCalibration(new EchoSimulator.Builder(SAMPLE_RATE)
+                .setDirectPath(latencyMs, 0.5)
+                .addReflector(4.0, 0.05)
+                .setNoise(30, 0)
+                .setSeed(11)
+                .build().render(schedule).samples, schedule, new NlmsCanceller(TAPS, 0.5));
+        assertTrue("Tail " + dry.directPathTailMs, dry.directPathTailMs < 1);
+        // A short tail never lowers the gate of a run that keeps the direct path
+        assertEquals(EchoTester.DEFAULT_ECHO_GATE_MS, EchoTester.echoGateMs(dry, false));
+        assertEquals(1, EchoTester.echoGateMs(dry, true));
+    }
+
+    @Test
+    public void saveAndLoad_roundTrips() throws Exception {
+        File dir = Files.createTempDirectory("calibration").toFile();
+        CalibrationProfile profile = sampleProfile("Pixel 8/Pro", System.currentTimeMillis());
+        profile.save(dir);
+
+        File file = CalibrationProfile.fileFor(dir, "Pixel 8/Pro", SOURCE);
+        assertTrue(file.isFile());
+        assertEquals(file.getParentFile(), dir);
+        assertTrue("Profile size " + file.length(), file.length() < 100 + TAPS * 4);
+
+        CalibrationProfile loaded = CalibrationProfile.load(dir, "Pixel 8/Pro", SOURCE);
+        assertNotNull(loaded);
+        assertEquals(profile.latencySamples, loaded.latencySamples);
+        assertEquals(profile.noiseFloorRms, loaded.noiseFloorRms, 1e-3);
+        assertEquals(profile.directPathTailMs, loaded.directPathTailMs, 1e-3);
+        assertTrue(loaded.unprocessedFallback);
+        assertEquals(profile.createdAtMillis, loaded.createdAtMillis);
+        assertArrayEquals(profile.directPathResponse, loaded.directPathResponse, 1e-6);
+
+        // Another source or model has its own file
+        assertNull(CalibrationProfile.load(dir, "Pixel 8/Pro", SOURCE + 1));
+        assertNull(CalibrationProfile.load(dir, "Pixel 8", SOURCE));
+    }
+
+    @Test
+    public void load_rejectsCorruptFiles() throws Exception {
+        File dir = Files.createTempDirectory("calibration").toFile();
+        try (FileOutputStream out = new FileOutputStream(CalibrationProfile.fileFor(dir, "JVM", SOURCE))) {
+            out.write(new byte[]{0x45, 0x43, 0x41, 0x4C, 99});
+        }
+        assertNull(CalibrationProfile.load(dir, "JVM", SOURCE));
+    }
+
+    @Test
+    public void isStale_afterMaxAge() {
+        long now = System.currentTimeMillis();
+        assertFalse(sampleProfile("JVM", now - 1000).isStale(now));
+        assertTrue(sampleProfile("JVM", now - CalibrationProfile.MAX_AGE_MS - 1).isStale(now));
+        // Clock moved backwards
+        assertTrue(sampleProfile("JVM", now + 60000).isStale(now));
+        assertFalse(sampleProfile("JVM", now).isCompatible(44100, TAPS));
+    }
+
+    private static CalibrationProfile sampleProfile(String model, long createdAt) {
+        CalibrationProfile profile = new CalibrationProfile();
+        profile.deviceModel = model;
+        profile.audioSource = SOURCE;
+        profile.unprocessedFallback = true;
+        profile.sampleRate = SAMPLE_RATE;
+        profile.createdAtMillis = createdAt;
+        profile.latencySamples = 1234;
+        profile.noiseFloorRms = 17.5;
+        profile.directPathTailMs = 0.75;
+        profile.directPathResponse = new double[TAPS];
+        for (int i = 0; i < TAPS; i++) {
+            profile.directPathResponse[i] = Math.exp(-i / 8.0) * (i % 2 == 0 ? 0.5 : -0.25);
+        }
+        return profile;
+    }
+}
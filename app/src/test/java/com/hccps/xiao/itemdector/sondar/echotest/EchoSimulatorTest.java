@@ -0,0 +1,210 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scores {@link EchoTester#analyzeSamples} against {@link EchoSimulator} ground truth and
+ * tracks its throughput.
+ */
+public class EchoSimulatorTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int REPETITIONS = 10;
+
+    @Test
+    public void render_isDeterministicPerSeed() {
+        ChirpSchedule schedule = defaultSchedule(3);
+
+        short[] first = EchoSimulator.random(42, SAMPLE_RATE).render(schedule).samples;
+        short[] second = EchoSimulator.random(42, SAMPLE_RATE).render(schedule).samples;
+        short[] other = EchoSimulator.random(43, SAMPLE_RATE).render(schedule).samples;
+
+        assertArrayEquals(first, second);
+        assertFalse(Arrays.equals(first, other));
+    }
+
+    @Test
+    public void render_isExactForWholeSampleDelays() {
+        // 4.0017 m is a round trip of exactly 1120 samples
+        double range = 1120 * EchoSimulator.SPEED_OF_SOUND / (2.0 * SAMPLE_RATE);
+        EchoSimulator simulator = new EchoSimulator.Builder(SAMPLE_RATE)
+                .addReflector(range, 0.5)
+                .build();
+        ChirpSchedule schedule = defaultSchedule(2);
+        EchoSimulator.Capture capture = simulator.render(schedule);
+        short[] template = schedule.getTemplate(0);
+
+        for (int chirp = 0; chirp < schedule.size(); chirp++) {
+            int arrival = (int) Math.round(capture.arrivalSample(chirp, 0));
+            assertEquals(schedule.getStart(chirp) + 1120, arrival);
+            for (int j = 0; j < template.length; j++) {
+                // Off by at most one from rounding a halved odd sample
+                assertEquals(0.5 * template[j], capture.samples[arrival + j], 1.0);
+            }
+        }
+    }
+
+    @Test
+    public void render_placesDriftedEchoesAtGroundTruth() {
+        // Drift exaggerated so that it moves later echoes by tens of samples
+        double driftPpm = 200;
+        EchoSimulator simulator = new EchoSimulator.Builder(SAMPLE_RATE)
+                .addReflector(4.0, 0.5)
+                .setClockDriftPpm(driftPpm)
+                .build();
+        ChirpSchedule schedule = defaultSchedule(REPETITIONS);
+        EchoSimulator.Capture capture = simulator.render(schedule);
+        double roundTripMs = simulator.getReflectors().get(0).roundTripMs();
+
+        // In-phase and quadrature versions of the chirp give a carrier-free correlation envelope
+        WaveformConfig waveform = EchoTester.DEFAULT_WAVEFORM;
+        double[] inPhase = chirp(waveform, 0);
+        double[] quadrature = chirp(waveform, Math.PI / 2);
+
+        for (int chirp = 0; chirp < schedule.size(); chirp++) {
+            // Drift stretches the capture clock, so delays grow by the drift ratio
+            // (the chirp start itself is rounded to a whole sample)
+            assertEquals(roundTripMs * (1 + driftPpm * 1e-6), capture.echoDelayMs(chirp, 0, SAMPLE_RATE),
+                    500.0 / SAMPLE_RATE);
+
+            double expected = capture.arrivalSample(chirp, 0);
+            double driftShift = expected - schedule.getStart(chirp) - roundTripMs * SAMPLE_RATE / 1000;
+            assertTrue(driftShift > chirp * 4);
+
+            int found = -1;
+            double best = -1;
+            for (int lag = (int) expected - 20; lag <= (int) expected + 20; lag++) {
+                double i = 0;
+                double q = 0;
+                for (int j = 0; j < inPhase.length; j++) {
+                    i += inPhase[j] * capture.samples[lag + j];
+                    q += quadrature[j] * capture.samples[lag + j];
+                }
+                if (i * i + q * q > best) {
+                    best = i * i + q * q;
+                    found = lag;
+                }
+            }
+            // The stretched echo is also slightly lower in frequency, which a linear chirp's
+            // matched filter reads as about one extra sample of delay at this drift
+            assertTrue("chirp " + chirp + ": expected " + expected + ", found " + found,
+                    Math.abs(found - expected) <= 2);
+        }
+    }
+
+    @Test
+    public void analyzer_meetsAccuracyOnSeededScenarios() {
+        int scenarios = 40;
+        int detected = 0;
+        int singleReflector = 0;
+        double singleReflectorError = 0;
+        double multiReflectorError = 0;
+
+        for (long seed = 1; seed <= scenarios; seed++) {
+            EchoSimulator simulator = EchoSimulator.random(seed, SAMPLE_RATE);
+            ChirpSchedule schedule = defaultSchedule(REPETITIONS);
+            EchoSimulator.Capture capture = simulator.render(schedule);
+            short[] template = schedule.getTemplate(0);
+
+            EchoTester.TestResult result = EchoTester.analyzeSamples(
+                    capture.samples, capture.chirpStarts, template.length);
+            if (result.echoDetected) {
+                detected++;
+            }
+
+            // The analyzer reports the loudest sample after the chirp ends, measured from
+            // the end of the chirp
+            int strongest = strongestReflector(simulator);
+            double expectedMs = capture.echoDelayMs(0, strongest, SAMPLE_RATE)
+                    + (templatePeak(template) - template.length) * 1000.0 / SAMPLE_RATE;
+            double error = Math.abs(result.echoDelayMs - expectedMs);
+
+            // With several reflectors the loudest peak can hop between echoes from chirp to
+            // chirp, so only single-reflector scenarios have an unambiguous expected delay
+            if (simulator.getReflectors().size() == 1) {
+                singleReflector++;
+                singleReflectorError += error;
+                assertTrue("seed " + seed + ": delay error " + error + " ms", error < 1.0);
+            } else {
+                multiReflectorError += error;
+            }
+        }
+
+        double detectionRate = (double) detected / scenarios;
+        double meanError = singleReflectorError / singleReflector;
+        String summary = String.format(
+                "detection rate=%.2f, mean delay error=%.3f ms (single), %.3f ms (multi)",
+                detectionRate, meanError, multiReflectorError / (scenarios - singleReflector));
+
+        assertTrue(summary, detectionRate >= 0.95);
+        assertTrue(summary, meanError < 0.5);
+    }
+
+    @Test
+    public void analyzer_throughput() {
+        // One minute of capture at the default chirp rate
+        ChirpSchedule schedule = defaultSchedule(120);
+        EchoSimulator.Capture capture = EchoSimulator.random(7, SAMPLE_RATE).render(schedule);
+        int chirpLength = schedule.getTemplate(0).length;
+
+        EchoTester.analyzeSamples(capture.samples, capture.chirpStarts, chirpLength);
+
+        int iterations = 5;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            EchoTester.analyzeSamples(capture.samples, capture.chirpStarts, chirpLength);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double samplesPerSecond = (double) capture.samples.length * iterations / seconds;
+
+        assertTrue(String.format("%.1f Msamples/s (%.0fx real time)",
+                samplesPerSecond / 1e6, samplesPerSecond / SAMPLE_RATE), samplesPerSecond > SAMPLE_RATE);
+    }
+
+    private static ChirpSchedule defaultSchedule(int repetitions) {
+        return SweepRunner.plan(Collections.singletonList(EchoTester.DEFAULT_WAVEFORM), repetitions, SAMPLE_RATE);
+    }
+
+    // Windowed chirp with the given carrier phase offset (0 reproduces the transmit template)
+    private static double[] chirp(WaveformConfig waveform, double phaseOffset) {
+        int length = waveform.chirpSamples(SAMPLE_RATE);
+        double rate = (waveform.maxFreq - waveform.minFreq) / (waveform.durationMs / 1000.0);
+        double[] chirp = new double[length];
+
+        for (int i = 0; i < length; i++) {
+            double time = (double) i / SAMPLE_RATE;
+            double phase = 2 * Math.PI * (waveform.minFreq * time + 0.5 * rate * time * time);
+            double window = 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (length - 1));
+            chirp[i] = window * Math.sin(phase + phaseOffset);
+        }
+        return chirp;
+    }
+
+    private static int strongestReflector(EchoSimulator simulator) {
+        int strongest = 0;
+        for (int r = 1; r < simulator.getReflectors().size(); r++) {
+            if (simulator.getReflectors().get(r).gain > simulator.getReflectors().get(strongest).gain) {
+                strongest = r;
+            }
+        }
+        return strongest;
+    }
+
+    private static int templatePeak(short[] template) {
+        return peakIndex(template, 0, template.length);
+    }
+
+    private static int peakIndex(short[] signal, int start, int end) {
+        int peak = start;
+        for (int i = start; i < end; i++) {
+            if (Math.abs(signal[i]) > Math.abs(signal[peak])) {
+                peak = i;
+            }
+        }
+        return peak;
+    }
+}
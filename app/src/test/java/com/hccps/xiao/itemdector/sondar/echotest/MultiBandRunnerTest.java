@@ -0,0 +1,270 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Frequency-division mode: schedule layout, sub-band separation and echo recovery on
+ * {@link EchoSimulator} captures.
+ */
+public class MultiBandRunnerTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int BANDS = 4;
+    private static final int REPETITIONS = 10;
+
+    private static final List<WaveformConfig> SUB_BANDS =
+            MultiBandRunner.splitBand(EchoTester.DEFAULT_WAVEFORM, BANDS);
+
+    private static ChirpSchedule schedule() {
+        return MultiBandRunner.plan(SUB_BANDS, REPETITIONS, SAMPLE_RATE, band -> band.generateChirp(SAMPLE_RATE));
+    }
+
+    @Test
+    public void plan_multipliesMeasurementRate() {
+        ChirpSchedule multiBand = schedule();
+        ChirpSchedule singleBand = SweepRunner.plan(
+                Collections.singletonList(EchoTester.DEFAULT_WAVEFORM), REPETITIONS, SAMPLE_RATE);
+
+        assertEquals(BANDS * REPETITIONS, multiBand.size());
+        assertEquals(singleBand.getTotalSamples(), multiBand.getTotalSamples());
+
+        // Each sub-band keeps the full period between its own chirps
+        int period = EchoTester.DEFAULT_WAVEFORM.slotSamples(SAMPLE_RATE);
+        for (int k = 0; k < BANDS; k++) {
+            int[] starts = multiBand.startsForTag(k);
+            for (int i = 1; i < starts.length; i++) {
+                assertEquals(period, starts[i] - starts[i - 1]);
+            }
+        }
+        for (int k = 1; k < SUB_BANDS.size(); k++) {
+            assertTrue(SUB_BANDS.get(k).minFreq > SUB_BANDS.get(k - 1).maxFreq);
+        }
+
+        // All sub-bands of a repetition are on air together
+        int chirpLength = SUB_BANDS.get(0).chirpSamples(SAMPLE_RATE);
+        int[] first = multiBand.startsForTag(0);
+        int[] last = multiBand.startsForTag(BANDS - 1);
+        for (int i = 0; i < REPETITIONS; i++) {
+            assertTrue(last[i] - first[i] < chirpLength);
+        }
+    }
+
+    @Test
+    public void filterBank_separatesSubBands() throws Exception {
+        ChirpSchedule schedule = schedule();
+        short[][] templates = new short[BANDS][];
+        for (int k = 0; k < BANDS; k++) {
+            templates[k] = schedule.getTemplate(k);
+        }
+        MatchedFilterBank bank = new MatchedFilterBank(Arrays.asList(templates));
+
+        for (int source = 0; source < BANDS; source++) {
+            short[] input = new short[4 * templates[source].length];
+            System.arraycopy(templates[source], 0, input, 100, templates[source].length);
+            short[][] outputs = bank.filterAll(input, null, 1);
+
+            int own = peak(outputs[source]);
+            // Compressed pulse at the end of the received chirp, at the template's amplitude
+            assertEquals(100 + templates[source].length - 1, own, 2);
+            assertEquals(Math.abs(outputs[source][own]), peakAbs(templates[source]), peakAbs(templates[source]) * 0.05);
+
+            for (int victim = 0; victim < BANDS; victim++) {
+                if (victim == source) continue;
+                double leakDb = 20 * Math.log10((double) Math.abs(outputs[victim][peak(outputs[victim])])
+                        / Math.abs(outputs[source][own]));
+                assertTrue("Leak " + source + "->" + victim + ": " + leakDb + " dB", leakDb < -20);
+            }
+        }
+    }
+
+    @Test
+    public void filterBank_separatesSimultaneousChirps() throws Exception {
+        ChirpSchedule schedule = schedule();
+        short[][] templates = new short[BANDS][];
+        for (int k = 0; k < BANDS; k++) {
+            templates[k] = schedule.getTemplate(k);
+        }
+        MatchedFilterBank bank = new MatchedFilterBank(Arrays.asList(templates));
+
+        // Every sub-band starting on the same sample; plan() leaves headroom for the sum
+        int start = 300;
+        short[] mix = new short[4 * templates[0].length];
+        short[][] alone = new short[BANDS][mix.length];
+        for (int k = 0; k < BANDS; k++) {
+            for (int i = 0; i < templates[k].length; i++) {
+                alone[k][start + i] = templates[k][i];
+                mix[start + i] += alone[k][start + i];
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(BANDS);
+        try {
+            short[][] outputs = bank.filterAll(mix, pool, BANDS);
+            assertArrayEquals(bank.filterAll(mix, null, 1)[0], outputs[0]);
+
+            for (int k = 0; k < BANDS; k++) {
+                short[] own = bank.filterAll(alone[k], null, 1)[k];
+                int pulse = peak(own);
+                assertEquals(start + templates[k].length - 1, pulse, 2);
+                assertEquals(peakAbs(own), Math.abs(outputs[k][pulse]), peakAbs(own) * 0.1);
+
+                // What the other sub-bands add to this one's output
+                double leak = 0;
+                for (int i = 0; i < own.length; i++) {
+                    leak = Math.max(leak, Math.abs(outputs[k][i] - own[i]));
+                }
+                double crosstalkDb = 20 * Math.log10(leak / peakAbs(own));
+                assertTrue("Band " + k + " crosstalk " + crosstalkDb + " dB", crosstalkDb < -15);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void plan_rendersWithoutClippingAndSeparates() throws Exception {
+        ChirpSchedule schedule = schedule();
+        short[] rendered = schedule.render();
+        for (int i = 0; i < rendered.length; i++) {
+            assertTrue("Clipped at sample " + i, Math.abs(rendered[i]) < Short.MAX_VALUE);
+        }
+
+        short[][] templates = new short[BANDS][];
+        for (int k = 0; k < BANDS; k++) {
+            templates[k] = schedule.getTemplate(k);
+        }
+        short[][] outputs = new MatchedFilterBank(Arrays.asList(templates)).filterAll(rendered, null, 1);
+
+        for (int k = 0; k < BANDS; k++) {
+            // The same sub-band rendered on its own
+            ChirpSchedule alone = new ChirpSchedule();
+            for (int start : schedule.startsForTag(k)) {
+                alone.add(start, templates[k], k);
+            }
+            alone.setTotalSamples(schedule.getTotalSamples());
+            short[] own = new MatchedFilterBank(Collections.singletonList(templates[k]))
+                    .filterAll(alone.render(), null, 1)[0];
+
+            for (int start : schedule.startsForTag(k)) {
+                int pulse = start + templates[k].length - 1;
+                assertEquals(peakAbs(templates[k]), Math.abs(outputs[k][pulse]), peakAbs(templates[k]) * 0.1);
+            }
+
+            double leak = 0;
+            for (int i = 0; i < own.length; i++) {
+                leak = Math.max(leak, Math.abs(outputs[k][i] - own[i]));
+            }
+            double crosstalkDb = 20 * Math.log10(leak / peakAbs(own));
+            assertTrue("Band " + k + " crosstalk " + crosstalkDb + " dB", crosstalkDb < -15);
+        }
+    }
+
+    @Test
+    public void analyze_recoversEchoesInEverySubBand() throws Exception {
+        double directDelayMs = 0.3;
+        // Echoes arrive after every sub-band's direct pulse, so the crosstalk windows around
+        // those pulses only see leakage
+        EchoSimulator simulator = new EchoSimulator.Builder(SAMPLE_RATE)
+                .setDirectPath(directDelayMs, 0.5)
+                .addReflector(4.0, 0.1)
+                .setNoise(20, 0.5)
+                .setSeed(7)
+                .build();
+        ChirpSchedule schedule = schedule();
+        short[] capture = simulator.render(schedule).samples;
+
+        int delay = NlmsCanceller.estimateDelay(schedule.render(), capture, SAMPLE_RATE / 10);
+        // Raw correlation can land one ~2.4 sample carrier cycle off
+        assertEquals(directDelayMs * SAMPLE_RATE / 1000, delay, 3);
+
+        ExecutorService pool = Executors.newFixedThreadPool(BANDS);
+        try {
+            MultiBandRunner.MultiBandResult parallel = MultiBandRunner.analyze(
+                    capture, schedule, SUB_BANDS, delay, SAMPLE_RATE, pool);
+            MultiBandRunner.MultiBandResult sequential = MultiBandRunner.analyze(
+                    capture, schedule, SUB_BANDS, delay, SAMPLE_RATE, null);
+
+            double expectedMs = simulator.getReflectors().get(0).roundTripMs() - directDelayMs;
+            assertEquals(BANDS * 1000.0 / EchoTester.DEFAULT_WAVEFORM.slotSamples(SAMPLE_RATE) * SAMPLE_RATE / 1000,
+                    parallel.measurementsPerSecond, 0.5);
+
+            for (int k = 0; k < BANDS; k++) {
+                EchoTester.TestResult band = parallel.bandResults[k];
+                assertTrue("Band " + k + " missed echoes", band.echoDetected);
+                assertEquals(REPETITIONS, band.echoCount);
+                assertEquals("Band " + k, expectedMs, band.echoDelayMs, 0.5);
+                assertEquals(band.echoDelayMs, sequential.bandResults[k].echoDelayMs, 1e-9);
+                assertTrue(String.format("Band %s SNR %.1f dB, crosstalk %.1f dB", SUB_BANDS.get(k).label(),
+                        band.snr, parallel.worstCrosstalkDb[k]), parallel.worstCrosstalkDb[k] < -15);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void analyze_appliesCalibratedThresholdToFilteredBands() throws Exception {
+        double noiseRms = 30;
+        double directDelayMs = 0.3;
+
+        // Noise floor as calibration measures it, on a capture with the same noise
+        ChirpSchedule calibrationSchedule = SweepRunner.plan(
+                Collections.singletonList(EchoTester.DEFAULT_WAVEFORM), 8, SAMPLE_RATE);
+        short[] calibrationCapture = new EchoSimulator.Builder(SAMPLE_RATE)
+                .setDirectPath(directDelayMs, 0.5)
+                .setNoise(noiseRms, 0)
+                .setSeed(12)
+                .build().render(calibrationSchedule).samples;
+        CalibrationProfile profile = EchoTester.measureCalibration(
+                calibrationCapture, calibrationSchedule, new NlmsCanceller(128, 0.5));
+        double threshold = EchoTester.echoThreshold(profile);
+        assertTrue("Threshold " + threshold, threshold > EchoTester.ECHO_THRESHOLD);
+
+        ChirpSchedule schedule = schedule();
+        int delay = (int) Math.round(directDelayMs * SAMPLE_RATE / 1000);
+
+        // A faint echo, well above the noise once filtered but far below the raw floor
+        short[] faint = new EchoSimulator.Builder(SAMPLE_RATE)
+                .setDirectPath(directDelayMs, 0.5)
+                .addReflector(4.0, 0.01)
+                .setNoise(noiseRms, 0)
+                .setSeed(13)
+                .build().render(schedule).samples;
+        MultiBandRunner.MultiBandResult found = MultiBandRunner.analyze(faint, schedule, SUB_BANDS, delay,
+                SAMPLE_RATE, EchoTester.DEFAULT_ECHO_GATE_MS, threshold, null);
+
+        // Noise alone must still stay under the scaled threshold
+        short[] quiet = new EchoSimulator.Builder(SAMPLE_RATE)
+                .setNoise(noiseRms, 0)
+                .setSeed(14)
+                .build().render(schedule).samples;
+        MultiBandRunner.MultiBandResult empty = MultiBandRunner.analyze(quiet, schedule, SUB_BANDS, delay,
+                SAMPLE_RATE, EchoTester.DEFAULT_ECHO_GATE_MS, threshold, null);
+
+        for (int k = 0; k < BANDS; k++) {
+            EchoTester.TestResult band = found.bandResults[k];
+            assertTrue(String.format("Band %d missed an echo at %.1f dB SNR", k, band.snr), band.echoDetected);
+            assertFalse(String.format("Band %d detected noise at %.1f dB SNR", k, empty.bandResults[k].snr),
+                    empty.bandResults[k].echoDetected);
+        }
+    }
+
+    private static int peak(short[] samples) {
+        int best = 0;
+        for (int i = 1; i < samples.length; i++) {
+            if (Math.abs(samples[i]) > Math.abs(samples[best])) best = i;
+        }
+        return best;
+    }
+
+    private static int peakAbs(short[] samples) {
+        return Math.abs(samples[peak(samples)]);
+    }
+}
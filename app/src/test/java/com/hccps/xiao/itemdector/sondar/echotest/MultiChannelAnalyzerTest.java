@@ -0,0 +1,128 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link Deinterleaver} and {@link MultiChannelAnalyzer}.
+ */
+public class MultiChannelAnalyzerTest {
+    private static final int SAMPLE_RATE = 48000;
+
+    @Test
+    public void deinterleave_splitsFramesAcrossAppends() {
+        int channels = 3;
+        short[] interleaved = new short[3000 * channels];
+        for (int i = 0; i < interleaved.length; i++) {
+            interleaved[i] = (short) ((i % channels) * 10000 + i / channels);
+        }
+
+        Deinterleaver deinterleaver = new Deinterleaver(channels, 16);
+        for (int offset = 0; offset < interleaved.length; offset += 123 * channels) {
+            deinterleaver.append(interleaved, offset, Math.min(123 * channels, interleaved.length - offset));
+        }
+
+        assertEquals(3000, deinterleaver.getFrameCount());
+        short[][] split = deinterleaver.getChannels();
+        for (int c = 0; c < channels; c++) {
+            assertEquals(3000, split[c].length);
+            for (int i = 0; i < 3000; i++) {
+                assertEquals(c * 10000 + i, split[c][i]);
+            }
+        }
+        assertArrayEquals(split[1], Deinterleaver.deinterleave(interleaved, channels)[1]);
+    }
+
+    @Test
+    public void estimateLag_recoversInterMicDelay() {
+        ChirpSchedule schedule = SweepRunner.plan(
+                Collections.singletonList(EchoTester.DEFAULT_WAVEFORM), 6, SAMPLE_RATE);
+
+        // Echo reaches the second mic 3.5 samples (about 2.5 cm of path) later
+        double range = 4.0;
+        double extra = 3.5 * EchoSimulator.SPEED_OF_SOUND / SAMPLE_RATE;
+        short[] first = render(schedule, range, 0, 1);
+        short[] second = render(schedule, range + extra / 2, 0, 2);
+
+        int maxLag = MultiChannelAnalyzer.maxLagSamples(EchoTester.MIC_SPACING_M, SAMPLE_RATE);
+        double lag = MultiChannelAnalyzer.estimateLag(first, second, schedule.startsForTag(0),
+                schedule.getTemplate(0).length, maxLag, SAMPLE_RATE);
+
+        assertEquals(3.5, lag, 0.25);
+
+        double delayMs = lag * 1000 / SAMPLE_RATE;
+        double bearing = MultiChannelAnalyzer.bearingDegrees(delayMs, EchoTester.MIC_SPACING_M);
+        assertEquals(Math.toDegrees(Math.asin(extra / EchoTester.MIC_SPACING_M)), bearing, 2.0);
+    }
+
+    @Test
+    public void channelDelaysMs_usesTheGivenEchoGate() {
+        ChirpSchedule schedule = SweepRunner.plan(
+                Collections.singletonList(EchoTester.DEFAULT_WAVEFORM), 6, SAMPLE_RATE);
+
+        // A loud 0.6 m echo, whose tail ends about 3.5 ms after the chirp, 3 samples earlier
+        // on the second mic, and a faint 4 m echo 3.5 samples later on it
+        double sample = EchoSimulator.SPEED_OF_SOUND / SAMPLE_RATE;
+        short[][] channels = {
+                new EchoSimulator.Builder(SAMPLE_RATE)
+                        .addReflector(0.6, 1.0).addReflector(4.0, 0.02)
+                        .setNoise(5, 0.8).setSeed(1).build().render(schedule).samples,
+                new EchoSimulator.Builder(SAMPLE_RATE)
+                        .addReflector(0.6 - 3 * sample / 2, 1.0).addReflector(4.0 + 3.5 * sample / 2, 0.02)
+                        .setNoise(5, 0.8).setSeed(2).build().render(schedule).samples};
+        int[] starts = schedule.startsForTag(0);
+        int chirpLength = schedule.getTemplate(0).length;
+        int maxLag = MultiChannelAnalyzer.maxLagSamples(EchoTester.MIC_SPACING_M, SAMPLE_RATE);
+
+        // The default gate leaves the near tail out; a 1 ms gate lets it swamp the far echo
+        double gated = MultiChannelAnalyzer.channelDelaysMs(channels, starts, chirpLength,
+                SAMPLE_RATE / 1000, maxLag, SAMPLE_RATE)[1] * SAMPLE_RATE / 1000;
+        double defaultGate = MultiChannelAnalyzer.channelDelaysMs(channels, starts, chirpLength,
+                maxLag, SAMPLE_RATE)[1] * SAMPLE_RATE / 1000;
+
+        assertEquals(3.5, defaultGate, 0.25);
+        assertTrue("1 ms gate found " + gated + " samples", Math.abs(gated - 3.5) > 1);
+    }
+
+    @Test
+    public void analyzeChannels_matchesSequentialAnalysis() throws Exception {
+        ChirpSchedule schedule = SweepRunner.plan(
+                Collections.singletonList(EchoTester.DEFAULT_WAVEFORM), 6, SAMPLE_RATE);
+        short[][] channels = new short[4][];
+        for (int c = 0; c < channels.length; c++) {
+            channels[c] = render(schedule, 3.0 + c, 40, c);
+        }
+        int[] starts = schedule.startsForTag(0);
+        int chirpLength = schedule.getTemplate(0).length;
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            EchoTester.TestResult[] results = MultiChannelAnalyzer.analyzeChannels(channels, starts, chirpLength, pool);
+            // Single-worker testers have no pool
+            EchoTester.TestResult[] inline = MultiChannelAnalyzer.analyzeChannels(channels, starts, chirpLength, null);
+            for (int c = 0; c < channels.length; c++) {
+                EchoTester.TestResult expected = EchoTester.analyzeSamples(channels[c], starts, chirpLength);
+                assertEquals(expected.echoDelayMs, results[c].echoDelayMs, 0);
+                assertEquals(expected.snr, results[c].snr, 0);
+                assertEquals(expected.echoDelayMs, inline[c].echoDelayMs, 0);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static short[] render(ChirpSchedule schedule, double range, double noise, long seed) {
+        EchoSimulator.Builder builder = new EchoSimulator.Builder(SAMPLE_RATE)
+                .addReflector(range, 0.3)
+                .setSeed(seed);
+        if (noise > 0) {
+            builder.setNoise(noise, 0.8);
+        }
+        return builder.build().render(schedule).samples;
+    }
+}
@@ -0,0 +1,231 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Convergence, warm-start and throughput tests for {@link NlmsCanceller}.
+ */
+public class NlmsCancellerTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int TAPS = 128;
+    private static final double STEP = 0.5;
+
+    @Test
+    public void fft_roundTripsAndMatchesDft() {
+        Fft fft = new Fft(64);
+        Random random = new Random(1);
+        double[] re = new double[64];
+        double[] im = new double[64];
+        for (int i = 0; i < 64; i++) {
+            re[i] = random.nextGaussian();
+            im[i] = random.nextGaussian();
+        }
+        double[] originalRe = re.clone();
+        double[] originalIm = im.clone();
+
+        fft.forward(re, im);
+        for (int k = 0; k < 64; k += 7) {
+            double sumRe = 0;
+            double sumIm = 0;
+            for (int n = 0; n < 64; n++) {
+                double angle = -2 * Math.PI * k * n / 64;
+                sumRe += originalRe[n] * Math.cos(angle) - originalIm[n] * Math.sin(angle);
+                sumIm += originalRe[n] * Math.sin(angle) + originalIm[n] * Math.cos(angle);
+            }
+            assertEquals(sumRe, re[k], 1e-9);
+            assertEquals(sumIm, im[k], 1e-9);
+        }
+
+        fft.inverse(re, im);
+        assertArrayEquals(originalRe, re, 1e-12);
+        assertArrayEquals(originalIm, im, 1e-12);
+    }
+
+    @Test
+    public void cancel_removesDirectPathAndKeepsEchoes() {
+        ChirpSchedule schedule = SweepRunner.plan(
+                Collections.singletonList(new WaveformConfig(18000, 22000, 20, 80)), 40, SAMPLE_RATE);
+        short[] reference = schedule.render();
+
+        // Strong leakage plus a 4 m echo, well outside the filter's reach
+        EchoSimulator.Capture capture = new EchoSimulator.Builder(SAMPLE_RATE)
+                .setDirectPath(0.4, 0.8)
+                .addReflector(4.0, 0.05)
+                .setNoise(5, 0.5)
+                .build()
+                .render(schedule);
+        short[] echoOnly = new EchoSimulator.Builder(SAMPLE_RATE)
+                .addReflector(4.0, 0.05)
+                .build()
+                .render(schedule).samples;
+
+        NlmsCanceller canceller = new NlmsCanceller(TAPS, STEP);
+        short[] cleaned = canceller.cancel(reference, capture.samples);
+
+        // Compare the chirp periods of the last half, after convergence
+        int chirpLength = schedule.getTemplate(0).length;
+        double before = 0;
+        double after = 0;
+        for (int i = schedule.size() / 2; i < schedule.size(); i++) {
+            int start = schedule.getStart(i);
+            before += energy(capture.samples, start, start + chirpLength);
+            after += energy(cleaned, start, start + chirpLength);
+        }
+        double erleDb = 10 * Math.log10(before / after);
+        assertTrue(String.format("ERLE %.1f dB", erleDb), erleDb > 20);
+
+        // The echo itself survives cancellation
+        int last = schedule.size() - 1;
+        int echoStart = (int) capture.arrivalSample(last, 0);
+        double echoKept = correlation(cleaned, echoOnly, echoStart, echoStart + chirpLength);
+        assertTrue("echo correlation " + echoKept, echoKept > 0.9);
+    }
+
+    @Test
+    public void cancel_keepsEchoesInsideOneMetre() {
+        ChirpSchedule schedule = SweepRunner.plan(
+                Collections.singletonList(new WaveformConfig(18000, 22000, 20, 80)), 40, SAMPLE_RATE);
+        short[] reference = schedule.render();
+
+        // 0.6 m is 168 samples round trip: past the taps, but heard while the chirp is still
+        // playing, so only the filter length keeps it from being learned as coupling
+        double range = 0.6;
+        EchoSimulator.Capture capture = new EchoSimulator.Builder(SAMPLE_RATE)
+                .setDirectPath(0.4, 0.8)
+                .addReflector(range, 0.3)
+                .setNoise(5, 0.5)
+                .build()
+                .render(schedule);
+        short[] echoOnly = new EchoSimulator.Builder(SAMPLE_RATE)
+                .addReflector(range, 0.3)
+                .build()
+                .render(schedule).samples;
+
+        int chirpLength = schedule.getTemplate(0).length;
+        int last = schedule.size() - 1;
+        int echoStart = (int) capture.arrivalSample(last, 0);
+
+        // How much of the echo is left in the output: its projection onto the echo alone
+        short[] cleaned = new NlmsCanceller(TAPS, STEP).cancel(reference, capture.samples);
+        double kept = projection(cleaned, echoOnly, echoStart, echoStart + chirpLength);
+        assertEquals(String.format("%.1f m echo kept", range), 1.0, kept, 0.2);
+
+        // A filter long enough to reach the reflector learns it as part of the coupling
+        short[] overreaching = new NlmsCanceller(4 * TAPS, STEP).cancel(reference, capture.samples);
+        double lost = projection(overreaching, echoOnly, echoStart, echoStart + chirpLength);
+        assertTrue("long filter kept " + lost, lost < 0.5);
+    }
+
+    @Test
+    public void warmStart_cancelsFromTheFirstBlock() throws Exception {
+        ChirpSchedule schedule = SweepRunner.plan(
+                Collections.singletonList(new WaveformConfig(18000, 22000, 20, 80)), 30, SAMPLE_RATE);
+        short[] reference = schedule.render();
+        short[] capture = new EchoSimulator.Builder(SAMPLE_RATE)
+                .setDirectPath(0.4, 0.8)
+                .build()
+                .render(schedule).samples;
+
+        NlmsCanceller trained = new NlmsCanceller(TAPS, STEP);
+        trained.cancel(reference, capture);
+
+        // Save and restore through the compact serialized form
+        ByteArrayOutputStream saved = new ByteArrayOutputStream();
+        trained.writeCoefficients(new DataOutputStream(saved));
+        assertEquals(1 + 4 + TAPS * 4, saved.size());
+
+        NlmsCanceller warm = new NlmsCanceller(TAPS, STEP);
+        warm.readCoefficients(new DataInputStream(new ByteArrayInputStream(saved.toByteArray())));
+        NlmsCanceller cold = new NlmsCanceller(TAPS, STEP);
+
+        int start = schedule.getStart(0);
+        int end = start + schedule.getTemplate(0).length;
+        double raw = energy(capture, start, end);
+        double warmResidual = energy(warm.cancel(reference, capture), start, end);
+        double coldResidual = energy(cold.cancel(reference, capture), start, end);
+
+        assertTrue("warm start only " + 10 * Math.log10(raw / warmResidual) + " dB",
+                10 * Math.log10(raw / warmResidual) > 20);
+        assertTrue(warmResidual < coldResidual / 10);
+    }
+
+    @Test
+    public void estimateDelay_searchesOnlyTheGivenRange() {
+        Random random = new Random(5);
+        short[] reference = new short[SAMPLE_RATE / 2];
+        for (int i = 0; i < reference.length; i++) {
+            reference[i] = (short) (random.nextGaussian() * 3000);
+        }
+        // A weak copy at 50 samples and a strong one at 500
+        short[] capture = new short[reference.length];
+        for (int i = 0; i < capture.length; i++) {
+            double value = (i >= 50 ? 0.3 * reference[i - 50] : 0) + (i >= 500 ? reference[i - 500] : 0);
+            capture[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+        }
+
+        assertEquals(500, NlmsCanceller.estimateDelay(reference, capture, 1000));
+        assertEquals(50, NlmsCanceller.estimateDelay(reference, capture, 30, 70));
+        assertEquals(500, NlmsCanceller.estimateDelay(reference, capture, 500, 500));
+    }
+
+    @Test
+    public void cancel_runsFasterThanRealTime() {
+        Random random = new Random(3);
+        short[] reference = new short[SAMPLE_RATE * 10];
+        short[] capture = new short[reference.length];
+        for (int i = 0; i < reference.length; i++) {
+            reference[i] = (short) (random.nextGaussian() * 3000);
+            capture[i] = (short) (i >= 7 ? reference[i - 7] / 2 : 0);
+        }
+
+        NlmsCanceller canceller = new NlmsCanceller(TAPS, STEP);
+        canceller.cancel(reference, capture);
+
+        long start = System.nanoTime();
+        short[] cleaned = canceller.cancel(reference, capture);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double realTime = (double) reference.length / SAMPLE_RATE / seconds;
+
+        assertTrue(String.format("%d taps at %.0fx real time", TAPS, realTime), realTime > 1);
+        assertTrue(energy(cleaned, 0, cleaned.length) < energy(capture, 0, capture.length) / 100);
+    }
+
+    private static double energy(short[] signal, int start, int end) {
+        double energy = 0;
+        for (int i = start; i < end; i++) {
+            energy += (double) signal[i] * signal[i];
+        }
+        return energy;
+    }
+
+    // Gain of b's component in a over a range
+    private static double projection(short[] a, short[] b, int start, int end) {
+        double ab = 0;
+        for (int i = start; i < end; i++) {
+            ab += (double) a[i] * b[i];
+        }
+        return ab / energy(b, start, end);
+    }
+
+    // Normalised correlation of two signals over a range
+    private static double correlation(short[] a, short[] b, int start, int end) {
+        double ab = 0;
+        double aa = 0;
+        double bb = 0;
+        for (int i = start; i < end; i++) {
+            ab += (double) a[i] * b[i];
+            aa += (double) a[i] * a[i];
+            bb += (double) b[i] * b[i];
+        }
+        return ab / Math.sqrt(aa * bb);
+    }
+}
@@ -0,0 +1,178 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trip and throughput tests for {@link PcmCodec}.
+ */
+public class PcmCodecTest {
+    private static final int SAMPLE_RATE = 48000;
+
+    @Test
+    public void roundTrip_isBitExactForTypicalCapture() throws Exception {
+        short[] samples = capture(SAMPLE_RATE * 5, 1);
+        byte[] encoded = PcmCodec.encode(samples);
+
+        assertArrayEquals(samples, PcmCodec.decode(encoded));
+        assertTrue("expected compression, got " + encoded.length + " bytes",
+                encoded.length < samples.length * 2);
+    }
+
+    @Test
+    public void roundTrip_isBitExactForEdgeCases() throws Exception {
+        // Full-scale alternation is the worst case for every predictor
+        short[] extremes = new short[PcmCodec.BLOCK_SIZE + 17];
+        for (int i = 0; i < extremes.length; i++) {
+            extremes[i] = i % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+        }
+        assertArrayEquals(extremes, PcmCodec.decode(PcmCodec.encode(extremes)));
+
+        short[] silence = new short[PcmCodec.BLOCK_SIZE * 3];
+        assertArrayEquals(silence, PcmCodec.decode(PcmCodec.encode(silence)));
+
+        Random random = new Random(7);
+        short[] white = new short[PcmCodec.BLOCK_SIZE * 2 + 1];
+        for (int i = 0; i < white.length; i++) {
+            white[i] = (short) random.nextInt();
+        }
+        assertArrayEquals(white, PcmCodec.decode(PcmCodec.encode(white)));
+
+        // Lone spike in a quiet partition exercises the escape code
+        short[] spike = new short[1000];
+        spike[500] = Short.MIN_VALUE;
+        assertArrayEquals(spike, PcmCodec.decode(PcmCodec.encode(spike)));
+
+        for (int length = 0; length <= 6; length++) {
+            short[] tiny = new short[length];
+            for (int i = 0; i < length; i++) {
+                tiny[i] = (short) (i * 9000 - 20000);
+            }
+            assertArrayEquals(tiny, PcmCodec.decode(PcmCodec.encode(tiny)));
+        }
+    }
+
+    @Test
+    public void streamingWrites_matchOneShotEncoding() throws Exception {
+        short[] samples = capture(SAMPLE_RATE, 2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (PcmCodec.Encoder encoder = new PcmCodec.Encoder(out)) {
+            // Odd chunk sizes, like AudioRecord.read() returning short reads
+            int position = 0;
+            int chunk = 1;
+            while (position < samples.length) {
+                int count = Math.min(chunk, samples.length - position);
+                encoder.write(samples, position, count);
+                position += count;
+                chunk = chunk * 3 % 5000 + 1;
+            }
+            encoder.flush();
+            assertEquals(samples.length, encoder.getSampleCount());
+            assertEquals(out.size(), encoder.getEncodedBytes());
+        }
+
+        assertArrayEquals(samples, PcmCodec.decode(out.toByteArray()));
+    }
+
+    @Test
+    public void blocks_areIndependentlyDecodable() throws Exception {
+        short[] samples = capture(PcmCodec.BLOCK_SIZE * 3, 3);
+        byte[] encoded = PcmCodec.encode(samples);
+
+        // Damage the payload of the first block; the header is left intact
+        for (int i = 12; i < 200; i++) {
+            encoded[i] ^= 0x5A;
+        }
+
+        PcmCodec.Decoder decoder = new PcmCodec.Decoder(new ByteArrayInputStream(encoded));
+        assertEquals(PcmCodec.BLOCK_SIZE, decoder.skipBlock());
+        checkRest(decoder, samples);
+
+        // Decoding the damaged block reports it, then carries on with the next one
+        decoder = new PcmCodec.Decoder(new ByteArrayInputStream(encoded));
+        try {
+            decoder.read(new short[10], 0, 10);
+            fail("Damaged block decoded");
+        } catch (IOException expected) {
+            // checksum mismatch
+        }
+        checkRest(decoder, samples);
+    }
+
+    @Test
+    public void checksum_catchesSingleBitFlips() throws Exception {
+        short[] samples = capture(PcmCodec.BLOCK_SIZE, 5);
+        byte[] encoded = PcmCodec.encode(samples);
+        Random random = new Random(6);
+
+        for (int trial = 0; trial < 50; trial++) {
+            byte[] damaged = encoded.clone();
+            // Anywhere after the sync word
+            int index = 2 + random.nextInt(damaged.length - 2);
+            damaged[index] ^= 1 << random.nextInt(8);
+            try {
+                PcmCodec.decode(damaged);
+                fail("Flip at byte " + index + " went unnoticed");
+            } catch (IOException expected) {
+                // checksum mismatch, or a header/payload that no longer parses
+            }
+        }
+    }
+
+    @Test
+    public void codec_runsFasterThanRealTime() throws Exception {
+        short[] samples = capture(SAMPLE_RATE * 60, 4);
+        double audioSeconds = (double) samples.length / SAMPLE_RATE;
+
+        // Warm up the JIT before timing
+        PcmCodec.decode(PcmCodec.encode(samples));
+
+        long encodeStart = System.nanoTime();
+        byte[] encoded = PcmCodec.encode(samples);
+        double encodeSeconds = (System.nanoTime() - encodeStart) / 1e9;
+
+        long decodeStart = System.nanoTime();
+        short[] decoded = PcmCodec.decode(encoded);
+        double decodeSeconds = (System.nanoTime() - decodeStart) / 1e9;
+
+        assertArrayEquals(samples, decoded);
+        assertTrue(String.format("encode at %.1fx real time", audioSeconds / encodeSeconds),
+                encodeSeconds < audioSeconds);
+        assertTrue(String.format("decode at %.1fx real time", audioSeconds / decodeSeconds),
+                decodeSeconds < audioSeconds);
+    }
+
+    // The second and third blocks of samples, read through to the end of the stream
+    private static void checkRest(PcmCodec.Decoder decoder, short[] samples) throws IOException {
+        short[] rest = new short[PcmCodec.BLOCK_SIZE * 2];
+        assertEquals(rest.length, decoder.read(rest, 0, rest.length));
+        for (int i = 0; i < rest.length; i++) {
+            assertEquals(samples[PcmCodec.BLOCK_SIZE + i], rest[i]);
+        }
+        assertEquals(-1, decoder.read(rest, 0, rest.length));
+    }
+
+    // Ultrasonic chirps over low-level room noise, roughly what the mic sees
+    private static short[] capture(int length, long seed) {
+        Random random = new Random(seed);
+        short[] samples = new short[length];
+        double noise = 0;
+
+        for (int i = 0; i < length; i++) {
+            noise = 0.9 * noise + random.nextGaussian() * 40;
+            double t = (double) (i % 24000) / SAMPLE_RATE;
+            double chirp = t < 0.02
+                    ? 8000 * Math.sin(2 * Math.PI * (18000 * t + 0.5 * 200000 * t * t))
+                    : 0;
+            samples[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, chirp + noise));
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,184 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streaming statistics: Welford moments, quantile sketch accuracy, merging and serialization.
+ */
+public class RunningStatsTest {
+
+    private static double[] sample(long seed, int n) {
+        Random random = new Random(seed);
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            // Mixture with negatives, zeros and a heavy right tail, like SNR in dB
+            double u = random.nextDouble();
+            values[i] = u < 0.05 ? 0 : u < 0.3 ? -random.nextDouble() * 10 : Math.exp(random.nextGaussian() * 1.5);
+        }
+        return values;
+    }
+
+    private static double exactQuantile(double[] sorted, double q) {
+        return sorted[(int) Math.floor(q * (sorted.length - 1))];
+    }
+
+    @Test
+    public void meanAndVarianceMatchTwoPass() {
+        double[] values = sample(1, 10000);
+        RunningStats stats = new RunningStats("x", "");
+        for (double v : values) stats.add(v);
+
+        double mean = Arrays.stream(values).average().getAsDouble();
+        double ss = 0;
+        for (double v : values) ss += (v - mean) * (v - mean);
+
+        assertEquals(values.length, stats.getCount());
+        assertEquals(mean, stats.getMean(), 1e-9);
+        assertEquals(ss / (values.length - 1), stats.getVariance(), 1e-6);
+    }
+
+    @Test
+    public void quantilesWithinRelativeAccuracy() {
+        double[] values = sample(2, 50000);
+        QuantileSketch sketch = new QuantileSketch();
+        for (double v : values) sketch.add(v);
+
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double q : new double[]{0.01, 0.25, 0.5, 0.95, 0.99, 1.0}) {
+            double exact = exactQuantile(sorted, q);
+            double tolerance = Math.abs(exact) * QuantileSketch.DEFAULT_RELATIVE_ACCURACY + 1e-9;
+            assertEquals("q=" + q, exact, sketch.quantile(q), tolerance);
+        }
+    }
+
+    @Test
+    public void mergedEqualsCombined() {
+        double[] a = sample(3, 20000);
+        double[] b = sample(4, 5000);
+
+        RunningStats left = new RunningStats("x", "");
+        RunningStats right = new RunningStats("x", "");
+        RunningStats all = new RunningStats("x", "");
+        for (double v : a) { left.add(v); all.add(v); }
+        for (double v : b) { right.add(v); all.add(v); }
+        left.merge(right);
+
+        assertEquals(all.getCount(), left.getCount());
+        assertEquals(all.getMean(), left.getMean(), 1e-9);
+        assertEquals(all.getVariance(), left.getVariance(), 1e-6);
+        for (double q : new double[]{0.5, 0.95, 0.99}) {
+            assertEquals(all.quantile(q), left.quantile(q), 0);
+        }
+    }
+
+    @Test
+    public void sketchIsOrderIndependent() {
+        // A wide spread of large values and a cluster of small ones, added either way round;
+        // the second pair spans more buckets than fit, so small values are folded together
+        for (double small : new double[]{0.5, 1e-5}) {
+            double[] large = new double[1000];
+            for (int i = 0; i < large.length; i++) {
+                large[i] = Math.pow(10, 3 + 9.0 * i / (large.length - 1)) * (small < 1e-3 ? 1e20 : 1);
+            }
+
+            QuantileSketch largeFirst = new QuantileSketch();
+            QuantileSketch smallFirst = new QuantileSketch();
+            for (double v : large) largeFirst.add(v);
+            for (int i = 0; i < 1000; i++) {
+                largeFirst.add(small);
+                smallFirst.add(small);
+            }
+            for (double v : large) smallFirst.add(v);
+
+            for (double q : new double[]{0, 0.25, 0.5, 0.75, 1.0}) {
+                assertEquals("small=" + small + ", q=" + q, smallFirst.quantile(q), largeFirst.quantile(q), 0);
+            }
+            if (small == 0.5) {
+                assertEquals(0.5, largeFirst.quantile(0.25), 0.5 * QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+            }
+        }
+    }
+
+    @Test
+    public void sketchMergeEqualsCombined() {
+        // Halves whose combined span is wider than one sketch holds
+        Random random = new Random(7);
+        QuantileSketch low = new QuantileSketch();
+        QuantileSketch high = new QuantileSketch();
+        QuantileSketch all = new QuantileSketch();
+        for (int i = 0; i < 5000; i++) {
+            double a = Math.pow(10, random.nextDouble() * 10 - 5);
+            double b = Math.pow(10, random.nextDouble() * 10 + 20);
+            low.add(a);
+            high.add(b);
+            all.add(a);
+            all.add(b);
+        }
+
+        QuantileSketch lowIntoHigh = new QuantileSketch();
+        lowIntoHigh.merge(high);
+        lowIntoHigh.merge(low);
+        low.merge(high);
+
+        for (double q : new double[]{0, 0.1, 0.5, 0.9, 0.99, 1.0}) {
+            assertEquals("q=" + q, all.quantile(q), low.quantile(q), 0);
+            assertEquals("q=" + q, all.quantile(q), lowIntoHigh.quantile(q), 0);
+        }
+    }
+
+    @Test
+    public void serializedAggregatorMerges() throws Exception {
+        ResultAggregator device = new ResultAggregator();
+        ResultAggregator session = new ResultAggregator();
+        Random random = new Random(5);
+        for (int i = 0; i < 1000; i++) {
+            EchoTester.TestResult result = new EchoTester.TestResult();
+            result.echoDetected = i % 4 != 0;
+            result.snr = random.nextGaussian() * 3 + 8;
+            result.signalEnergy = Math.exp(random.nextGaussian() + 5);
+            result.echoDelayMs = 20 + random.nextGaussian();
+            result.loopLatencyMs = i % 2 == 0 ? 35 + random.nextDouble() : Double.NaN;
+            (i < 600 ? device : session).add(result);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        session.write(new DataOutputStream(bytes));
+        ResultAggregator restored = ResultAggregator.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        device.merge(restored);
+
+        assertEquals(1000, device.getRunCount());
+        assertEquals(750, device.getEchoCount());
+        assertEquals(750, device.getDelay().getCount());
+        assertEquals(500, device.getLoopLatency().getCount());
+        assertEquals(8, device.getSnr().getMean(), 0.5);
+        assertEquals(20, device.getDelay().quantile(0.5), 0.3);
+    }
+
+    @Test
+    public void memoryIsBounded() throws Exception {
+        // Values spanning hundreds of decades still fit in a fixed number of buckets
+        QuantileSketch sketch = new QuantileSketch();
+        Random random = new Random(6);
+        for (int i = 0; i < 200000; i++) {
+            sketch.add(Math.pow(10, random.nextDouble() * 200 - 100));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sketch.write(new DataOutputStream(bytes));
+        assertTrue("Sketch size " + bytes.size(), bytes.size() < 2 * (2048 * 8 + 8) + 64);
+
+        // Only magnitudes near zero lose accuracy; the upper tail is still exact to 1%
+        double p99 = sketch.quantile(0.99);
+        assertEquals(98, Math.log10(p99), 0.05);
+    }
+}
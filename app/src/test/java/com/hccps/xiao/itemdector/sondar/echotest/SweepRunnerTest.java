@@ -0,0 +1,140 @@
+package com.hccps.xiao.itemdector.sondar.echotest;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scheduling and analysis tests for {@link SweepRunner} and {@link ChirpSchedule}.
+ */
+public class SweepRunnerTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final double NOISE_RMS = 20;
+
+    private static final List<WaveformConfig> CONFIGS = Arrays.asList(
+            new WaveformConfig(17000, 21000, 10, 80),
+            new WaveformConfig(18000, 22000, 20, 80),
+            new WaveformConfig(19000, 23000, 15, 60));
+
+    @Test
+    public void plan_interleavesConfigsRoundRobin() {
+        ChirpSchedule schedule = SweepRunner.plan(CONFIGS, 4, SAMPLE_RATE);
+
+        assertEquals(12, schedule.size());
+        for (int i = 0; i < schedule.size(); i++) {
+            assertEquals(i % CONFIGS.size(), schedule.getTag(i));
+            assertEquals(CONFIGS.get(i % CONFIGS.size()).chirpSamples(SAMPLE_RATE),
+                    schedule.getTemplate(i).length);
+        }
+        assertEquals(4, schedule.startsForTag(1).length);
+    }
+
+    @Test
+    public void plan_hasNoDeadTimeBeyondListenWindows() {
+        int repetitions = 10;
+        ChirpSchedule schedule = SweepRunner.plan(CONFIGS, repetitions, SAMPLE_RATE);
+
+        int slots = 0;
+        for (WaveformConfig config : CONFIGS) {
+            slots += config.slotSamples(SAMPLE_RATE);
+        }
+
+        // Everything beyond the chirps and their listen windows is the fixed lead-in
+        int deadTime = schedule.getTotalSamples() - slots * repetitions;
+        assertTrue("dead time " + deadTime, deadTime >= 0 && deadTime <= SAMPLE_RATE / 5);
+
+        // Each chirp starts exactly one slot after the previous one
+        for (int i = 1; i < schedule.size(); i++) {
+            WaveformConfig previous = CONFIGS.get(schedule.getTag(i - 1));
+            assertEquals(previous.slotSamples(SAMPLE_RATE), schedule.getStart(i) - schedule.getStart(i - 1));
+        }
+    }
+
+    @Test
+    public void render_matchesScheduleInAnyChunking() {
+        ChirpSchedule schedule = SweepRunner.plan(CONFIGS, 3, SAMPLE_RATE);
+        short[] whole = schedule.render();
+
+        short[] chunk = new short[333];
+        for (int position = 0; position < whole.length; position += chunk.length) {
+            int count = Math.min(chunk.length, whole.length - position);
+            schedule.render(chunk, position, count);
+            for (int i = 0; i < count; i++) {
+                assertEquals(whole[position + i], chunk[i]);
+            }
+        }
+
+        for (int i = 0; i < schedule.size(); i++) {
+            short[] template = schedule.getTemplate(i);
+            int start = schedule.getStart(i);
+            for (int j = 0; j < template.length; j++) {
+                assertEquals(template[j], whole[start + j]);
+            }
+        }
+    }
+
+    @Test
+    public void analyze_reportsEachConfigsEchoes() {
+        int repetitions = 8;
+        EchoSimulator simulator = new EchoSimulator.Builder(SAMPLE_RATE)
+                .addReflector(3.0, 0.3)
+                .setNoise(NOISE_RMS, 0)
+                .setSeed(21)
+                .build();
+        ChirpSchedule schedule = SweepRunner.plan(CONFIGS, repetitions, SAMPLE_RATE);
+        short[] capture = simulator.render(schedule).samples;
+
+        SweepRunner.SweepResult result = SweepRunner.analyze(capture, schedule, CONFIGS, SAMPLE_RATE);
+        assertEquals(capture.length * 1000.0 / SAMPLE_RATE, result.durationMs, 1e-9);
+
+        double roundTripMs = simulator.getReflectors().get(0).roundTripMs();
+        for (int c = 0; c < CONFIGS.size(); c++) {
+            EchoTester.TestResult cell = result.cellResults[c];
+            String label = CONFIGS.get(c).label();
+            assertTrue(label + " missed echoes", cell.echoDetected);
+            assertEquals(label, repetitions, cell.echoCount);
+            // Each cell measures from the end of its own chirp length
+            assertEquals(label, expectedDelayMs(schedule.getTemplate(c), roundTripMs), cell.echoDelayMs, 1.0);
+            assertEquals(label, expectedSnr(cell), cell.snr, 1.0);
+        }
+    }
+
+    @Test
+    public void analyze_staysInsideShortListenWindows() {
+        // The next chirp's direct path arrives 30 ms after this chirp ends, inside the usual
+        // 50 ms echo window, and the previous chirp's echoes fill the 1000 samples before it
+        List<WaveformConfig> configs = Collections.singletonList(new WaveformConfig(18000, 22000, 10, 30));
+        EchoSimulator simulator = new EchoSimulator.Builder(SAMPLE_RATE)
+                .setDirectPath(0.3, 0.5)
+                .addReflector(3.0, 0.2)
+                .setNoise(NOISE_RMS, 0)
+                .setSeed(22)
+                .build();
+        ChirpSchedule schedule = SweepRunner.plan(configs, 10, SAMPLE_RATE);
+        short[] capture = simulator.render(schedule).samples;
+
+        EchoTester.TestResult cell = SweepRunner.analyze(capture, schedule, configs, SAMPLE_RATE).cellResults[0];
+        double expectedMs = expectedDelayMs(schedule.getTemplate(0), simulator.getReflectors().get(0).roundTripMs());
+        assertTrue(cell.echoDetected);
+        assertEquals(expectedMs, cell.echoDelayMs, 1.0);
+        assertEquals(expectedSnr(cell), cell.snr, 1.0);
+    }
+
+    // The analyzer reports the loudest sample of the echo, measured from the end of the chirp
+    private static double expectedDelayMs(short[] template, double roundTripMs) {
+        int peak = 0;
+        for (int i = 1; i < template.length; i++) {
+            if (Math.abs(template[i]) > Math.abs(template[peak])) peak = i;
+        }
+        return roundTripMs + (peak - template.length) * 1000.0 / SAMPLE_RATE;
+    }
+
+    // SNR against the simulated noise alone, i.e. what an unbiased noise window would give
+    private static double expectedSnr(EchoTester.TestResult cell) {
+        return 10 * Math.log10(cell.signalEnergy / (NOISE_RMS * NOISE_RMS));
+    }
+}